@@ -2,11 +2,21 @@ package ru.yandex.practicum.filmorate.controller;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.exception.ValidateException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.LikeBatchResult;
+import ru.yandex.practicum.filmorate.model.LikeOperation;
+import ru.yandex.practicum.filmorate.model.Suggestion;
 import ru.yandex.practicum.filmorate.service.FilmService;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,6 +27,10 @@ import java.util.Optional;
 @Slf4j
 public class FilmController {
     private final FilmService filmService;
+    private final JsonArrayStreamer jsonArrayStreamer;
+    private final NdjsonImporter ndjsonImporter;
+    @Value("${filmorate.import.chunk-size:1000}")
+    private final int importChunkSize;
 
 
     @GetMapping("/{filmId}")
@@ -36,8 +50,16 @@ public class FilmController {
 
 
     @GetMapping
-    public @ResponseBody List<Film> getAllFilm() {
-        return filmService.getAllFilms();
+    public ResponseEntity<StreamingResponseBody> getAllFilm() {
+        return jsonArrayStreamer.stream(filmService::streamAllFilms);
+    }
+
+    @GetMapping(params = "limit")
+    public @ResponseBody List<Film> getFilmsPage(
+            @RequestParam(required = false) Long after,
+            @RequestParam Integer limit
+    ) {
+        return filmService.getFilmsPage(after, limit);
     }
 
 
@@ -59,6 +81,20 @@ public class FilmController {
         filmService.removeLike(userId, filmId);
     }
 
+    @PostMapping("/likes:batch")
+    public LikeBatchResult applyLikes(@RequestBody List<LikeOperation> operations) {
+        return filmService.applyLikes(operations);
+    }
+
+    /**
+     * Импорт фильмов в формате NDJSON: по фильму в строке. Ответ - NDJSON с результатом
+     * по каждой строке: присвоенный id или ошибка.
+     */
+    @PostMapping(value = "/import", consumes = NdjsonImporter.NDJSON)
+    public void importFilms(InputStream body, HttpServletResponse response) throws IOException {
+        ndjsonImporter.importLines(body, response, Film.class, importChunkSize, filmService::importFilms);
+    }
+
     @GetMapping("/popular")
     public List<Film> getMostPopularFilms(
             @RequestParam(defaultValue = "10", required = false, name = "count") Integer count,
@@ -68,12 +104,24 @@ public class FilmController {
         return filmService.getMostPopularFilms(count, genreId, year);
     }
 
+    @GetMapping("/trending")
+    public List<Film> getTrendingFilms(
+            @RequestParam(defaultValue = "day") String window,
+            @RequestParam(defaultValue = "10") Integer count
+    ) {
+        return filmService.getTrendingFilms(window, count);
+    }
+
     @GetMapping("/common")
     public List<Film> getCommonFilms(
-            @RequestParam(required = false) Integer userId,
-            @RequestParam(required = false) Integer friendId
+            @RequestParam(required = false) List<Long> userIds,
+            @RequestParam(required = false) Long userId,
+            @RequestParam(required = false) Long friendId
     ) {
-        return filmService.getCommonFilms(userId, friendId);
+        if (userIds == null) {
+            userIds = Arrays.asList(userId, friendId);
+        }
+        return filmService.getCommonFilms(userIds);
     }
 
     @GetMapping("/director/{id}")
@@ -87,6 +135,14 @@ public class FilmController {
         return filmService.getSearchResults(query, by);
     }
 
+    @GetMapping("/search/suggest")
+    public List<Suggestion> getSuggestions(
+            @RequestParam String prefix,
+            @RequestParam(defaultValue = "10") Integer limit
+    ) {
+        return filmService.getSuggestions(prefix, limit);
+    }
+
     @DeleteMapping("/{id}")
     public void deleteFilm(@PathVariable Long id) {
         filmService.deleteFilm(id);
@@ -0,0 +1,80 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.ImportRecord;
+import ru.yandex.practicum.filmorate.model.ImportResult;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Читает тело запроса в формате NDJSON построчно и передает разобранные строки порциями.
+ * Результат по каждой строке сразу пишется в ответ тоже в формате NDJSON, поэтому ни вход,
+ * ни ответ целиком в памяти не собираются.
+ */
+@Component
+@AllArgsConstructor
+public class NdjsonImporter {
+    public static final String NDJSON = "application/x-ndjson";
+
+    private final ObjectMapper objectMapper;
+
+
+    public <T> void importLines(InputStream body, HttpServletResponse response, Class<T> type, int chunkSize,
+                                Function<List<ImportRecord<T>>, List<ImportResult>> importer) throws IOException {
+        response.setContentType(NDJSON);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        OutputStream out = response.getOutputStream();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+
+        List<ImportRecord<T>> chunk = new ArrayList<>(chunkSize);
+        List<ImportResult> parseErrors = new ArrayList<>();
+        long lineNumber = 0;
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+
+            try {
+                chunk.add(new ImportRecord<>(lineNumber, objectMapper.readValue(line, type)));
+            } catch (JsonProcessingException e) {
+                parseErrors.add(ImportResult.failed(lineNumber, "Некорректная строка: " + e.getOriginalMessage()));
+            }
+            if (chunk.size() + parseErrors.size() >= chunkSize) {
+                flush(chunk, parseErrors, importer, out);
+            }
+        }
+        flush(chunk, parseErrors, importer, out);
+    }
+
+    private <T> void flush(List<ImportRecord<T>> chunk, List<ImportResult> parseErrors,
+                           Function<List<ImportRecord<T>>, List<ImportResult>> importer,
+                           OutputStream out) throws IOException {
+        List<ImportResult> results = new ArrayList<>(parseErrors);
+        if (!chunk.isEmpty()) {
+            results.addAll(importer.apply(new ArrayList<>(chunk)));
+        }
+        results.sort(Comparator.comparing(ImportResult::getLine));
+
+        for (ImportResult result : results) {
+            out.write(objectMapper.writeValueAsBytes(result));
+            out.write('\n');
+        }
+        out.flush();
+        chunk.clear();
+        parseErrors.clear();
+    }
+}
@@ -19,8 +19,9 @@ public class ReviewController {
 
 
     @GetMapping
-    public List<Review> findAll(@RequestParam Optional<Long> filmId, @RequestParam Optional<Integer> count) {
-        return reviewService.findAll(filmId, count);
+    public List<Review> findAll(@RequestParam Optional<Long> filmId, @RequestParam Optional<Integer> count,
+                                @RequestParam Optional<Integer> afterUseful, @RequestParam Optional<Long> afterId) {
+        return reviewService.findAll(filmId, count, afterUseful, afterId);
     }
 
     @PostMapping
@@ -1,16 +1,28 @@
 package ru.yandex.practicum.filmorate.controller;
 
 import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidateException;
 import lombok.extern.slf4j.Slf4j;
 import ru.yandex.practicum.filmorate.model.Feed;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FriendPath;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserImportLine;
 import org.springframework.web.bind.annotation.*;
 import ru.yandex.practicum.filmorate.service.FeedService;
+import ru.yandex.practicum.filmorate.service.PageValidator;
 import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.memory.LongLongHashMap;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
@@ -21,6 +33,10 @@ public class UserController {
 
     private final UserService userService;
     private final FeedService feedService;
+    private final JsonArrayStreamer jsonArrayStreamer;
+    private final NdjsonImporter ndjsonImporter;
+    @Value("${filmorate.import.chunk-size:1000}")
+    private final int importChunkSize;
 
 
     @GetMapping("/{id}")
@@ -34,14 +50,35 @@ public class UserController {
     }
 
 
+    /**
+     * Импорт пользователей и ребер дружбы в формате NDJSON. Ответ - NDJSON с результатом по каждой
+     * строке: для пользователя - соответствие sourceId присвоенному id, для ребра - только номер строки.
+     * В ребре userId/friendId ссылаются на существующих пользователей, а userSourceId/friendSourceId -
+     * на пользователей, импортированных выше в том же потоке.
+     */
+    @PostMapping(value = "/import", consumes = NdjsonImporter.NDJSON)
+    public void importUsers(InputStream body, HttpServletResponse response) throws IOException {
+        LongLongHashMap importedIds = new LongLongHashMap(1024, UserService.NOT_IMPORTED);
+        ndjsonImporter.importLines(body, response, UserImportLine.class, importChunkSize,
+                records -> userService.importUsers(records, importedIds));
+    }
+
     @PutMapping
     public @ResponseBody User update(@RequestBody User user) throws ValidateException {
         return userService.updateUser(user);
     }
 
     @GetMapping
-    public @ResponseBody List<User> getAllUsers() {
-        return userService.getAllUsers();
+    public ResponseEntity<StreamingResponseBody> getAllUsers() {
+        return jsonArrayStreamer.stream(userService::streamAllUsers);
+    }
+
+    @GetMapping(params = "limit")
+    public @ResponseBody List<User> getUsersPage(
+            @RequestParam(required = false) Long after,
+            @RequestParam Integer limit
+    ) {
+        return userService.getUsersPage(after, limit);
     }
 
 
@@ -71,6 +108,23 @@ public class UserController {
         return userService.getFriendList(userId);
     }
 
+    @GetMapping("/{id}/friends/suggestions")
+    public List<User> getFriendSuggestions(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "10") Integer limit
+    ) {
+        return userService.getFriendSuggestions(id, limit);
+    }
+
+    @GetMapping("/{id}/path/{otherId}")
+    public FriendPath getFriendPath(
+            @PathVariable Long id,
+            @PathVariable Long otherId,
+            @RequestParam(required = false) Integer maxDepth
+    ) {
+        return userService.getFriendPath(id, otherId, maxDepth);
+    }
+
     @GetMapping("/{id}/friends/common/{otherId}")
     public @ResponseBody List<User> getMutualFriends(
             @PathVariable Long id,
@@ -89,16 +143,40 @@ public class UserController {
         userService.deleteUser(id);
     }
 
+    @GetMapping(value = "/{id}/feed/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamFeed(
+            @PathVariable Long id,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId
+    ) {
+        userService.validateUser(id);
+        PageValidator.validate(lastEventId, null, false);
+        return feedService.subscribe(id, lastEventId);
+    }
+
+    @GetMapping("/{id}/timeline")
+    public List<Feed> getTimeline(
+            @PathVariable Long id,
+            @RequestParam(defaultValue = "50") Integer limit
+    ) {
+        userService.validateUser(id);
+        return feedService.getTimeline(id, limit);
+    }
+
     @GetMapping("/{userId}/feed")
-    public @ResponseBody List<Feed> getFeed(@PathVariable Long userId) {
+    public ResponseEntity<StreamingResponseBody> getFeed(
+            @PathVariable Long userId,
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) Integer limit
+    ) {
         User user = userService.getUserById(userId).get();
 
         if (user == null) {
             log.error("Не найден пользователь с id = {}", userId);
             throw new NotFoundException("Не найден пользователь с указанным id");
         }
+        PageValidator.validate(after, limit, false);
 
-        return feedService.getFeedByUserId(userId);
+        return jsonArrayStreamer.<Feed>stream(consumer -> feedService.streamFeed(userId, after, limit, consumer));
     }
 
 
@@ -0,0 +1,23 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class FriendPath {
+    private Boolean found;
+    /**
+     * число шагов дружбы в цепочке, null если цепочка не найдена
+     */
+    private Integer degrees;
+    /**
+     * наибольшая длина цепочки, в пределах которой шел поиск
+     */
+    private Integer maxDepth;
+    private List<User> path;
+}
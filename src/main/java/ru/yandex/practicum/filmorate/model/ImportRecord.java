@@ -0,0 +1,16 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImportRecord<T> {
+    /**
+     * номер строки во входных данных, начиная с 1
+     */
+    private Long line;
+    private T value;
+}
@@ -0,0 +1,34 @@
+package ru.yandex.practicum.filmorate.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ImportResult {
+    /**
+     * номер строки во входных данных, начиная с 1
+     */
+    private Long line;
+    /**
+     * идентификатор, указанный во входных данных
+     */
+    private Long sourceId;
+    /**
+     * идентификатор, присвоенный при записи
+     */
+    private Long id;
+    private String error;
+
+    public static ImportResult created(Long line, Long sourceId, Long id) {
+        return new ImportResult(line, sourceId, id, null);
+    }
+
+    public static ImportResult failed(Long line, String error) {
+        return new ImportResult(line, null, null, error);
+    }
+}
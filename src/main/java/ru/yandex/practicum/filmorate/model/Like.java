@@ -1,6 +1,17 @@
 package ru.yandex.practicum.filmorate.model;
 
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
 public class Like {
     private Long userId;
     private Long filmId;
+    /**
+     * время постановки лайка в миллисекундах
+     */
+    private Long createdAt;
 }
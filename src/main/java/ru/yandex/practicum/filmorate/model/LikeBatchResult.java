@@ -0,0 +1,26 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LikeBatchResult {
+    /**
+     * число принятых операций
+     */
+    private Integer accepted;
+    /**
+     * число действительно добавленных и удаленных лайков после схлопывания повторов
+     */
+    private Integer added;
+    private Integer removed;
+    /**
+     * причины отклонения операций по их номеру в пакете
+     */
+    private Map<Integer, String> errors;
+}
@@ -0,0 +1,17 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LikeOperation {
+    private Long userId;
+    private Long filmId;
+    /**
+     * одно из значений ADD или REMOVE
+     */
+    private String op;
+}
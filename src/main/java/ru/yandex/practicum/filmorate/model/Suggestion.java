@@ -0,0 +1,24 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class Suggestion {
+    /**
+     * название фильма или имя режиссера
+     */
+    private String text;
+    /**
+     * одно из значений title или director
+     */
+    private String type;
+    private Long id;
+    /**
+     * число лайков фильма или всех фильмов режиссера
+     */
+    private Integer likes;
+}
@@ -0,0 +1,23 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.time.Duration;
+
+/**
+ * Окно для списка набирающих популярность фильмов: вклад лайка уменьшается вдвое
+ * за каждый такой промежуток времени.
+ */
+public enum TrendingWindow {
+    HOUR(Duration.ofHours(1)),
+    DAY(Duration.ofDays(1)),
+    WEEK(Duration.ofDays(7));
+
+    private final Duration halfLife;
+
+    TrendingWindow(Duration halfLife) {
+        this.halfLife = halfLife;
+    }
+
+    public Duration getHalfLife() {
+        return halfLife;
+    }
+}
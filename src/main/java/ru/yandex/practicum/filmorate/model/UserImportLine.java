@@ -0,0 +1,40 @@
+package ru.yandex.practicum.filmorate.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+
+import java.time.LocalDate;
+
+/**
+ * Строка импорта пользователей: либо пользователь (id, email, login, name, birthday),
+ * либо ребро дружбы. Каждый конец ребра задается ровно одним из полей: userId/friendId -
+ * id уже существующего пользователя, userSourceId/friendSourceId - id из входных данных
+ * пользователя, импортированного выше в том же потоке.
+ */
+@Data
+public class UserImportLine {
+    private Long id;
+    private String email;
+    private String login;
+    private String name;
+    private LocalDate birthday;
+    private Long userId;
+    private Long userSourceId;
+    private Long friendId;
+    private Long friendSourceId;
+
+    @JsonIgnore
+    public boolean isFriendEdge() {
+        return userId != null || userSourceId != null || friendId != null || friendSourceId != null;
+    }
+
+    public User toUser() {
+        User user = new User();
+        user.setId(id);
+        user.setEmail(email);
+        user.setLogin(login);
+        user.setName(name);
+        user.setBirthday(birthday);
+        return user;
+    }
+}
@@ -6,6 +6,7 @@ import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.storage.db.DirectorDbStorage;
+import ru.yandex.practicum.filmorate.storage.memory.FilmSearchIndex;
 
 import java.util.List;
 
@@ -14,6 +15,7 @@ import java.util.List;
 @AllArgsConstructor
 public class DirectorService {
     private final DirectorDbStorage directorStorage;
+    private final FilmSearchIndex filmSearchIndex;
 
     public List<Director> findAll() {
         return directorStorage.findAll();
@@ -30,14 +32,20 @@ public class DirectorService {
 
 
     public Director create(Director director) {
-        return directorStorage.create(director);
+        Director created = directorStorage.create(director);
+        filmSearchIndex.putDirector(created);
+        return created;
     }
 
     public Director update(Director director) {
-        return directorStorage.update(director);
+        Director updated = directorStorage.update(director);
+        filmSearchIndex.putDirector(updated);
+        return updated;
     }
 
     public String delete(Long id) {
-        return directorStorage.delete(id);
+        String result = directorStorage.delete(id);
+        filmSearchIndex.removeDirector(id);
+        return result;
     }
 }
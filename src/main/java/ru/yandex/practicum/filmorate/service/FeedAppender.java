@@ -0,0 +1,236 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.Feed;
+import ru.yandex.practicum.filmorate.storage.FeedsStorage;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Отложенная запись ленты событий. События получают идентификатор сразу, попадают
+ * в ограниченную очередь и записываются фоновым потоком пакетами - когда набрался пакет
+ * или прошел интервал сброса. Если очередь заполнена дольше enqueue-timeout-ms или
+ * приложение останавливается, событие записывается сразу в потоке запроса. Пакет,
+ * который не удалось записать целиком, дописывается по одному событию.
+ */
+@Service
+@Slf4j
+public class FeedAppender {
+    private final FeedsStorage feedsStorage;
+    private final BlockingQueue<Feed> queue;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long enqueueTimeoutMs;
+    private final long drainTimeoutMs;
+    private final AtomicLong lastEventId = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong writtenSynchronously = new AtomicLong();
+    private final Map<Long, Feed> unwritten = new ConcurrentSkipListMap<>();
+    private volatile boolean running;
+    private Thread worker;
+
+    public FeedAppender(FeedsStorage feedsStorage,
+                        @Value("${filmorate.feed.queue-capacity:10000}") int queueCapacity,
+                        @Value("${filmorate.feed.batch-size:500}") int batchSize,
+                        @Value("${filmorate.feed.flush-interval-ms:100}") long flushIntervalMs,
+                        @Value("${filmorate.feed.enqueue-timeout-ms:50}") long enqueueTimeoutMs,
+                        @Value("${filmorate.feed.drain-timeout-ms:10000}") long drainTimeoutMs) {
+        this.feedsStorage = feedsStorage;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.enqueueTimeoutMs = enqueueTimeoutMs;
+        this.drainTimeoutMs = drainTimeoutMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        lastEventId.set(feedsStorage.getMaxEventId());
+        running = true;
+        worker = new Thread(this::run, "feed-appender");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Останавливает прием событий в очередь и ждет, пока накопленные события будут записаны.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        worker.join(drainTimeoutMs);
+        if (worker.isAlive()) {
+            log.error("Не все события ленты записаны при остановке, осталось: {}", queue.size());
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Назначает событию идентификатор и ставит его в очередь на запись.
+     */
+    public Feed append(Feed feed) {
+        feed.setEventId(lastEventId.incrementAndGet());
+        unwritten.put(feed.getEventId(), feed);
+
+        boolean queued = false;
+        if (running) {
+            try {
+                queued = queue.offer(feed, enqueueTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!queued) {
+            writtenSynchronously.incrementAndGet();
+            write(List.of(feed));
+        }
+        return feed;
+    }
+
+    /**
+     * Ставит в очередь пакет событий с идущими подряд идентификаторами. То, что не поместилось
+     * в очередь, записывается сразу одним пакетом.
+     */
+    public List<Feed> appendAll(List<Feed> feeds) {
+        long firstEventId = lastEventId.getAndAdd(feeds.size()) + 1;
+        for (int i = 0; i < feeds.size(); i++) {
+            Feed feed = feeds.get(i);
+            feed.setEventId(firstEventId + i);
+            unwritten.put(feed.getEventId(), feed);
+        }
+
+        int queued = 0;
+        while (running && queued < feeds.size() && queue.offer(feeds.get(queued))) {
+            queued++;
+        }
+        if (queued < feeds.size()) {
+            writtenSynchronously.addAndGet(feeds.size() - queued);
+            write(new ArrayList<>(feeds.subList(queued, feeds.size())));
+        }
+        return feeds;
+    }
+
+    /**
+     * События, которые приняты, но еще могут отсутствовать в базе, по возрастанию event_id.
+     * Событие убирается отсюда только после записи, поэтому чтение этого списка, а затем базы
+     * видит каждое событие хотя бы в одном из мест.
+     */
+    public List<Feed> getPending() {
+        return new ArrayList<>(unwritten.values());
+    }
+
+    /**
+     * Периодически пишет в лог глубину очереди, задержку записи и счетчики записанных событий.
+     */
+    @Scheduled(fixedDelayString = "${filmorate.metrics.log-interval-ms:60000}")
+    public void logStats() {
+        log.info("Запись ленты: в очереди {}, задержка {} мс, записано {}, из них в потоке запроса {}, потеряно {}",
+                getQueueDepth(), getLagMs(), written.get(), writtenSynchronously.get(), failed.get());
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Сколько миллисекунд ждет записи самое старое событие в очереди.
+     */
+    public long getLagMs() {
+        Feed oldest = queue.peek();
+        return oldest == null ? 0 : Math.max(0, System.currentTimeMillis() - oldest.getTimestamp());
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getWrittenSynchronously() {
+        return writtenSynchronously.get();
+    }
+
+    private void run() {
+        List<Feed> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Feed first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.currentTimeMillis() + flushIntervalMs;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    Feed next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queue.drainTo(batch);
+                write(batch);
+                return;
+            }
+
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Пакет пишется одной транзакцией. Если она не прошла, события пишутся по одному, чтобы
+     * одна ошибочная строка не лишила записи остальные события пакета. Потерянными считаются
+     * только события, которые не удалось записать и по одному.
+     */
+    private void write(List<Feed> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            feedsStorage.saveAll(batch);
+            written.addAndGet(batch.size());
+        } catch (DataAccessException e) {
+            log.warn("Не удалось записать пакет из {} событий ленты, события пишутся по одному", batch.size(), e);
+            batch.forEach(this::writeOne);
+        }
+        for (Feed feed : batch) {
+            unwritten.remove(feed.getEventId());
+        }
+    }
+
+    private void writeOne(Feed feed) {
+        try {
+            feedsStorage.saveAll(List.of(feed));
+            written.incrementAndGet();
+        } catch (DuplicateKeyException e) {
+            written.incrementAndGet();
+        } catch (DataAccessException e) {
+            failed.incrementAndGet();
+            log.error("Не удалось записать событие ленты {}", feed, e);
+        }
+    }
+}
@@ -3,23 +3,43 @@ package ru.yandex.practicum.filmorate.service;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import ru.yandex.practicum.filmorate.model.EventType;
 import ru.yandex.practicum.filmorate.model.Feed;
+import ru.yandex.practicum.filmorate.model.LikeOperation;
 import ru.yandex.practicum.filmorate.model.Operation;
 import ru.yandex.practicum.filmorate.storage.FeedsStorage;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
 
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 @AllArgsConstructor
 public class FeedService {
+    private static final int USER_LOCK_STRIPES = 64;
 
     private final FeedsStorage feedsStorage;
     private final UserStorage userStorage;
+    private final FeedAppender feedAppender;
+    private final FeedTimeline feedTimeline;
+    private final FeedStreams feedStreams;
+    /**
+     * Идентификатор событию назначается и событие публикуется под блокировкой его автора,
+     * чтобы события одного пользователя доходили до лент и потоков по возрастанию event_id.
+     */
+    private final ReentrantLock[] userLocks = newUserLocks();
 
 
     public void addFriend(Long userId, Long friendId) {
@@ -32,11 +52,18 @@ public class FeedService {
                 .timestamp(new Date().getTime())
                 .build();
 
-        feedsStorage.save(feed);
-
+        record(feed);
+        feedTimeline.invalidate(userId);
     }
 
 
+    /**
+     * Сбрасывает ленты друзей после импорта дружбы. Событий в ленту импорт не пишет.
+     */
+    public void friendsImported(Collection<Long> userIds) {
+        userIds.forEach(feedTimeline::invalidate);
+    }
+
     public void deleteFriend(Long userId, Long friendId) {
         log.info("Пользователь {} удалил друга", userId);
         Feed feed = Feed.builder()
@@ -47,7 +74,8 @@ public class FeedService {
                 .timestamp(new Date().getTime())
                 .build();
 
-        feedsStorage.save(feed);
+        record(feed);
+        feedTimeline.invalidate(userId);
     }
 
     public void addLike(Long userId, Long filmId) {
@@ -60,7 +88,7 @@ public class FeedService {
                 .timestamp(new Date().getTime())
                 .build();
 
-        feedsStorage.save(feed);
+        record(feed);
     }
 
     public void removeLike(Long userId, Long filmId) {
@@ -73,7 +101,39 @@ public class FeedService {
                 .timestamp(new Date().getTime())
                 .build();
 
-        feedsStorage.save(feed);
+        record(feed);
+    }
+
+    /**
+     * События лайков пакетной загрузки, по одному на каждую принятую операцию.
+     */
+    public void recordLikes(List<LikeOperation> operations) {
+        long timestamp = new Date().getTime();
+        List<Feed> feeds = new ArrayList<>(operations.size());
+        for (LikeOperation operation : operations) {
+            feeds.add(Feed.builder()
+                    .userId(operation.getUserId())
+                    .entityId(operation.getFilmId())
+                    .eventType(EventType.LIKE.name())
+                    .operation(operation.getOp())
+                    .timestamp(timestamp)
+                    .build());
+        }
+
+        List<ReentrantLock> locks = new ArrayList<>();
+        feeds.stream().map(feed -> stripe(feed.getUserId())).collect(Collectors.toCollection(TreeSet::new))
+                .forEach(stripe -> locks.add(userLocks[stripe]));
+        locks.forEach(ReentrantLock::lock);
+        try {
+            feedAppender.appendAll(feeds);
+            for (Feed feed : feeds) {
+                feedTimeline.publish(feed);
+                feedStreams.publish(feed);
+            }
+        } finally {
+            locks.forEach(ReentrantLock::unlock);
+        }
+        log.info("Записано {} событий лайков пакетом", feeds.size());
     }
 
     public void addReview(Long userId, Long reviewId) {
@@ -86,7 +146,7 @@ public class FeedService {
                 .timestamp(new Date().getTime())
                 .build();
 
-        feedsStorage.save(feed);
+        record(feed);
     }
 
 
@@ -100,7 +160,7 @@ public class FeedService {
                 .timestamp(new Date().getTime())
                 .build();
 
-        feedsStorage.save(feed);
+        record(feed);
     }
 
     public void removeReview(Long reviewId, Long userId) {
@@ -113,11 +173,88 @@ public class FeedService {
                 .timestamp(new Date().getTime())
                 .build();
 
-        feedsStorage.save(feed);
+        record(feed);
+    }
+
+    /**
+     * Передает события пользователя после курсора afterEventId по возрастанию event_id.
+     * События из базы сливаются с еще не записанными событиями из очереди. Очередь читается
+     * до базы, чтобы событие, записанное между двумя чтениями, не потерялось, а повтор
+     * с тем же event_id пропускается.
+     */
+    public void streamFeed(Long userId, Long afterEventId, Integer limit, Consumer<Feed> consumer) {
+        long after = afterEventId == null ? 0 : afterEventId;
+        Deque<Feed> pending = feedAppender.getPending().stream()
+                .filter(feed -> feed.getUserId().equals(userId) && feed.getEventId() > after)
+                .sorted(Comparator.comparing(Feed::getEventId))
+                .collect(Collectors.toCollection(ArrayDeque::new));
+        int max = limit == null ? Integer.MAX_VALUE : limit;
+        int[] sent = {0};
+
+        feedsStorage.streamFeed(userId, afterEventId, limit, feed -> {
+            while (!pending.isEmpty() && pending.peek().getEventId() <= feed.getEventId()) {
+                Feed queued = pending.poll();
+                if (!queued.getEventId().equals(feed.getEventId()) && sent[0] < max) {
+                    consumer.accept(queued);
+                    sent[0]++;
+                }
+            }
+            if (sent[0] < max) {
+                consumer.accept(feed);
+                sent[0]++;
+            }
+        });
+        while (!pending.isEmpty() && sent[0] < max) {
+            consumer.accept(pending.poll());
+            sent[0]++;
+        }
+    }
+
+    /**
+     * Поток новых событий пользователя. С lastEventId сначала приходят события после него.
+     */
+    public SseEmitter subscribe(Long userId, Long lastEventId) {
+        return feedStreams.subscribe(userId, lastEventId,
+                (afterEventId, limit, consumer) -> streamFeed(userId, afterEventId, limit, consumer));
+    }
+
+    /**
+     * Последние события друзей пользователя, новые первыми.
+     */
+    public List<Feed> getTimeline(Long userId, Integer limit) {
+        PageValidator.validate(null, limit, true);
+        return feedTimeline.getTimeline(userId, Math.min(limit, feedTimeline.getBufferSize()));
+    }
+
+    /**
+     * Убирает пользователя из лент в памяти. Вызывается до удаления его из графа дружбы.
+     */
+    public void deleteUser(Long userId) {
+        feedTimeline.removeUser(userId);
+    }
+
+    private void record(Feed feed) {
+        ReentrantLock lock = userLocks[stripe(feed.getUserId())];
+        lock.lock();
+        try {
+            feedAppender.append(feed);
+            feedTimeline.publish(feed);
+            feedStreams.publish(feed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int stripe(Long userId) {
+        return Long.hashCode(userId) & (USER_LOCK_STRIPES - 1);
     }
 
-    public List<Feed> getFeedByUserId(Long userId) {
-        return feedsStorage.getFeedByUserId(userId);
+    private static ReentrantLock[] newUserLocks() {
+        ReentrantLock[] locks = new ReentrantLock[USER_LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
     }
 
 }
@@ -0,0 +1,328 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.yandex.practicum.filmorate.model.Feed;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Подписки на ленту событий пользователя через server-sent events. Соединение не держит поток:
+ * новые события складываются в ограниченный буфер подписки, а отправку выполняет небольшой
+ * общий пул, который берет подписку в работу, только когда в ее буфере что-то появилось.
+ * При переполнении буфера соединение закрывается - клиент переподключается с Last-Event-ID
+ * и дочитывает пропущенное.
+ * <p>
+ * Запись в медленное соединение может надолго заблокировать поток пула. Такие подписки находит
+ * heartbeat: если отправка идет дольше send-timeout-ms, подписка снимается, поток прерывается,
+ * а пул на время зависшей отправки получает дополнительный поток, чтобы остальные подписчики
+ * не ждали. Соединение закрывается, как только запись завершится ошибкой.
+ */
+@Service
+@Slf4j
+public class FeedStreams {
+    private final int bufferSize;
+    private final int replayPageSize;
+    private final long timeoutMs;
+    private final long sendTimeoutMs;
+    private final ThreadPoolExecutor dispatcher;
+    private final Map<Long, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    public FeedStreams(@Value("${filmorate.feed.stream.buffer-size:1000}") int bufferSize,
+                       @Value("${filmorate.feed.stream.replay-page-size:500}") int replayPageSize,
+                       @Value("${filmorate.feed.stream.timeout-ms:1800000}") long timeoutMs,
+                       @Value("${filmorate.feed.stream.dispatcher-threads:2}") int dispatcherThreads,
+                       @Value("${filmorate.feed.stream.send-timeout-ms:10000}") long sendTimeoutMs) {
+        this.bufferSize = bufferSize;
+        this.replayPageSize = replayPageSize;
+        this.timeoutMs = timeoutMs;
+        this.sendTimeoutMs = sendTimeoutMs;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.dispatcher = new ThreadPoolExecutor(dispatcherThreads, dispatcherThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "feed-stream-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        dispatcher.shutdownNow();
+        subscriptions.values().forEach(userSubscriptions ->
+                userSubscriptions.forEach(subscription -> subscription.emitter.complete()));
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    /**
+     * Открывает поток событий пользователя. Если указан lastEventId, сначала постранично
+     * отправляются события после него, а пришедшие за это время новые события ждут в буфере.
+     */
+    public SseEmitter subscribe(Long userId, Long lastEventId, FeedSource source) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscription subscription = new Subscription(userId, emitter, lastEventId == null ? 0 : lastEventId);
+        subscriptions.compute(userId, (id, userSubscriptions) -> {
+            Set<Subscription> updated = userSubscriptions == null ? ConcurrentHashMap.newKeySet() : userSubscriptions;
+            updated.add(subscription);
+            return updated;
+        });
+        subscriberCount.incrementAndGet();
+        emitter.onCompletion(() -> unsubscribe(subscription));
+        emitter.onTimeout(() -> unsubscribe(subscription));
+        emitter.onError(e -> unsubscribe(subscription));
+
+        if (lastEventId == null) {
+            subscription.replaying = false;
+        } else {
+            subscription.scheduled.set(true);
+            execute(subscription, () -> replay(subscription, source));
+        }
+        return emitter;
+    }
+
+    /**
+     * Передает событие всем открытым потокам его автора.
+     */
+    public void publish(Feed feed) {
+        Set<Subscription> userSubscriptions = subscriptions.get(feed.getUserId());
+        if (userSubscriptions == null) {
+            return;
+        }
+        for (Subscription subscription : userSubscriptions) {
+            boolean overflow;
+            synchronized (subscription) {
+                overflow = subscription.buffer.size() >= bufferSize;
+                if (!overflow) {
+                    subscription.buffer.add(feed);
+                }
+            }
+            if (overflow) {
+                log.warn("Буфер потока ленты пользователя {} переполнен, соединение закрывается", feed.getUserId());
+                subscription.emitter.complete();
+            } else {
+                schedule(subscription);
+            }
+        }
+    }
+
+    /**
+     * Отправляет комментарий во все потоки, чтобы закрытые клиентом соединения обнаруживались
+     * и не держали буферы, и снимает подписки, отправка в которые зависла.
+     */
+    @Scheduled(fixedDelayString = "${filmorate.feed.stream.heartbeat-ms:15000}")
+    public void heartbeat() {
+        long now = System.currentTimeMillis();
+        subscriptions.values().forEach(userSubscriptions -> userSubscriptions.forEach(subscription -> {
+            long sendStartedAt = subscription.sendStartedAt;
+            if (sendStartedAt != 0 && now - sendStartedAt >= sendTimeoutMs) {
+                release(subscription, sendStartedAt);
+                return;
+            }
+            subscription.heartbeatDue = true;
+            schedule(subscription);
+        }));
+    }
+
+    /**
+     * Снимает подписку с зависшей отправкой и временно добавляет пулу поток вместо занятого ею.
+     */
+    private void release(Subscription subscription, long sendStartedAt) {
+        synchronized (subscription.sendLock) {
+            if (subscription.sendStartedAt != sendStartedAt || !subscription.stuck.compareAndSet(false, true)) {
+                return;
+            }
+            subscription.compensated = true;
+            resizeDispatcher(1);
+            subscription.sender.interrupt();
+        }
+        log.warn("Отправка в поток ленты пользователя {} идет дольше {} мс, подписка закрывается",
+                subscription.userId, sendTimeoutMs);
+        unsubscribe(subscription);
+    }
+
+    private synchronized void resizeDispatcher(int delta) {
+        if (delta > 0) {
+            dispatcher.setMaximumPoolSize(dispatcher.getMaximumPoolSize() + delta);
+            dispatcher.setCorePoolSize(dispatcher.getCorePoolSize() + delta);
+        } else {
+            dispatcher.setCorePoolSize(dispatcher.getCorePoolSize() + delta);
+            dispatcher.setMaximumPoolSize(dispatcher.getMaximumPoolSize() + delta);
+        }
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        subscriptions.computeIfPresent(subscription.userId, (id, userSubscriptions) -> {
+            if (userSubscriptions.remove(subscription)) {
+                subscriberCount.decrementAndGet();
+            }
+            return userSubscriptions.isEmpty() ? null : userSubscriptions;
+        });
+    }
+
+    private void replay(Subscription subscription, FeedSource source) {
+        try {
+            int sent;
+            do {
+                List<Feed> page = new ArrayList<>(replayPageSize);
+                source.stream(subscription.lastSentId, replayPageSize, page::add);
+                for (Feed feed : page) {
+                    send(subscription, feed);
+                }
+                sent = page.size();
+            } while (sent == replayPageSize);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Не удалось отправить пропущенные события пользователю {}", subscription.userId, e);
+            subscription.emitter.completeWithError(e);
+            return;
+        }
+        subscription.replaying = false;
+        drain(subscription);
+    }
+
+    private void schedule(Subscription subscription) {
+        if (!subscription.replaying && !subscription.stuck.get() && subscription.scheduled.compareAndSet(false, true)) {
+            execute(subscription, () -> drain(subscription));
+        }
+    }
+
+    private void execute(Subscription subscription, Runnable task) {
+        try {
+            dispatcher.execute(task);
+        } catch (RejectedExecutionException e) {
+            subscription.emitter.complete();
+        }
+    }
+
+    /**
+     * Отправляет накопленные события, пока буфер не опустеет. Флаг scheduled снимается только
+     * при пустом буфере и сразу перепроверяется, чтобы не потерять событие, пришедшее между ними.
+     */
+    private void drain(Subscription subscription) {
+        try {
+            while (true) {
+                List<Feed> batch;
+                synchronized (subscription) {
+                    batch = new ArrayList<>(subscription.buffer);
+                    subscription.buffer.clear();
+                }
+                if (batch.isEmpty()) {
+                    if (subscription.heartbeatDue) {
+                        subscription.heartbeatDue = false;
+                        write(subscription, SseEmitter.event().comment(""));
+                    }
+                    subscription.scheduled.set(false);
+                    synchronized (subscription) {
+                        if (subscription.buffer.isEmpty() || !subscription.scheduled.compareAndSet(false, true)) {
+                            return;
+                        }
+                    }
+                    continue;
+                }
+
+                batch.sort(Comparator.comparing(Feed::getEventId));
+                for (Feed feed : batch) {
+                    send(subscription, feed);
+                }
+                subscription.heartbeatDue = false;
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Поток ленты пользователя {} закрыт", subscription.userId, e);
+            subscription.scheduled.set(false);
+            subscription.emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * События с event_id не больше уже отправленного пропускаются: они могли прийти и при
+     * дочитывании, и через буфер. Пропустить так более раннее событие нельзя - FeedService
+     * публикует события одного пользователя по возрастанию event_id.
+     */
+    private void send(Subscription subscription, Feed feed) throws IOException {
+        if (feed.getEventId() <= subscription.lastSentId) {
+            return;
+        }
+        write(subscription, SseEmitter.event()
+                .id(String.valueOf(feed.getEventId()))
+                .data(feed, MediaType.APPLICATION_JSON));
+        subscription.lastSentId = feed.getEventId();
+    }
+
+    /**
+     * Пишет в соединение, отмечая время начала записи для heartbeat. Если за время записи
+     * подписку признали зависшей, дополнительный поток пула возвращается, а отправка прекращается.
+     */
+    private void write(Subscription subscription, SseEmitter.SseEventBuilder event) throws IOException {
+        if (subscription.stuck.get()) {
+            throw new IOException("Поток ленты закрыт из-за зависшей отправки");
+        }
+        subscription.sender = Thread.currentThread();
+        subscription.sendStartedAt = System.currentTimeMillis();
+        try {
+            subscription.emitter.send(event);
+        } finally {
+            synchronized (subscription.sendLock) {
+                subscription.sendStartedAt = 0;
+                subscription.sender = null;
+                if (subscription.compensated) {
+                    subscription.compensated = false;
+                    Thread.interrupted();
+                    resizeDispatcher(-1);
+                }
+            }
+        }
+        if (subscription.stuck.get()) {
+            throw new IOException("Поток ленты закрыт из-за зависшей отправки");
+        }
+    }
+
+    /**
+     * Источник событий ленты пользователя после курсора, по возрастанию event_id.
+     */
+    @FunctionalInterface
+    public interface FeedSource {
+        void stream(Long afterEventId, Integer limit, Consumer<Feed> consumer);
+    }
+
+    private static class Subscription {
+        private final Long userId;
+        private final SseEmitter emitter;
+        private final List<Feed> buffer = new ArrayList<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean stuck = new AtomicBoolean();
+        private final Object sendLock = new Object();
+        private volatile long sendStartedAt;
+        private volatile Thread sender;
+        private boolean compensated;
+        private volatile boolean replaying = true;
+        private volatile boolean heartbeatDue;
+        private volatile long lastSentId;
+
+        private Subscription(Long userId, SseEmitter emitter, long lastSentId) {
+            this.userId = userId;
+            this.emitter = emitter;
+            this.lastSentId = lastSentId;
+        }
+    }
+}
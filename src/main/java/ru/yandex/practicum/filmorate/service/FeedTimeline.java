@@ -0,0 +1,339 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.Feed;
+import ru.yandex.practicum.filmorate.storage.FeedsStorage;
+import ru.yandex.practicum.filmorate.storage.memory.FriendGraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Лента событий друзей. Для каждого автора в памяти хранится кольцевой буфер его последних событий,
+ * а для читателя - буфер ленты, в который новое событие раскладывается при записи всем, кто добавил
+ * автора в друзья. Буферы создаются при первом обращении и заполняются из базы и очереди записи.
+ * Пользователям, у которых друзей больше fan-out-max-friends, буфер ленты не ведется - их лента
+ * читается из базы одним запросом на порцию друзей и дополняется событиями из очереди записи.
+ * Когда буферов становится max-buffers, вытесняется восьмая часть давно не читанных.
+ */
+@Service
+@Slf4j
+public class FeedTimeline {
+    private static final Comparator<Cursor> NEWEST_FIRST =
+            Comparator.comparing((Cursor cursor) -> cursor.current().getEventId()).reversed();
+
+    private final FeedsStorage feedsStorage;
+    private final FeedAppender feedAppender;
+    private final FriendGraph friendGraph;
+    private final int bufferSize;
+    private final int fanOutMaxFriends;
+    private final int maxBuffers;
+    private final Map<Long, FeedRingBuffer> ownEvents = new ConcurrentHashMap<>();
+    private final Map<Long, FeedRingBuffer> timelines = new ConcurrentHashMap<>();
+
+    public FeedTimeline(FeedsStorage feedsStorage, FeedAppender feedAppender, FriendGraph friendGraph,
+                        @Value("${filmorate.timeline.buffer-size:100}") int bufferSize,
+                        @Value("${filmorate.timeline.fan-out-max-friends:1000}") int fanOutMaxFriends,
+                        @Value("${filmorate.timeline.max-buffers:100000}") int maxBuffers) {
+        this.feedsStorage = feedsStorage;
+        this.feedAppender = feedAppender;
+        this.friendGraph = friendGraph;
+        this.bufferSize = bufferSize;
+        this.fanOutMaxFriends = fanOutMaxFriends;
+        this.maxBuffers = maxBuffers;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Добавляет событие в буфер автора и в ленты всех, у кого автор в друзьях.
+     */
+    public void publish(Feed feed) {
+        FeedRingBuffer own = ownEvents.get(feed.getUserId());
+        if (own != null) {
+            own.add(feed);
+        }
+        for (long followerId : friendGraph.getFollowers(feed.getUserId())) {
+            FeedRingBuffer timeline = timelines.get(followerId);
+            if (timeline != null) {
+                timeline.add(feed);
+            }
+        }
+    }
+
+    /**
+     * Последние limit событий друзей пользователя, новые первыми.
+     */
+    public List<Feed> getTimeline(Long userId, int limit) {
+        long[] friends = friendGraph.getFriends(userId);
+        if (friends.length > fanOutMaxFriends) {
+            timelines.remove(userId);
+            return latestFromStorage(friends, limit);
+        }
+
+        FeedRingBuffer timeline = timelines.get(userId);
+        if (timeline == null) {
+            timeline = createTimeline(userId, friends);
+        }
+        timeline.touch();
+        return timeline.latest(limit);
+    }
+
+    /**
+     * Лента без буферов: сначала читается очередь записи, затем база, чтобы событие,
+     * записанное между двумя чтениями, не потерялось. Повторы отбрасываются по event_id.
+     */
+    private List<Feed> latestFromStorage(long[] friends, int limit) {
+        List<Feed> latest = new ArrayList<>();
+        for (Feed feed : feedAppender.getPending()) {
+            if (Arrays.binarySearch(friends, feed.getUserId()) >= 0) {
+                latest.add(feed);
+            }
+        }
+        latest.addAll(feedsStorage.findLatestFeeds(Arrays.stream(friends).boxed().collect(Collectors.toList()), limit));
+        latest.sort(Comparator.comparing(Feed::getEventId).reversed());
+
+        List<Feed> result = new ArrayList<>(limit);
+        for (Feed feed : latest) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (result.isEmpty() || !result.get(result.size() - 1).getEventId().equals(feed.getEventId())) {
+                result.add(feed);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Сбрасывает ленту пользователя после изменения списка его друзей.
+     */
+    public void invalidate(Long userId) {
+        timelines.remove(userId);
+    }
+
+    /**
+     * Убирает буферы пользователя и ленты тех, кто видел его события. Вызывается до удаления
+     * пользователя из графа дружбы.
+     */
+    public void removeUser(Long userId) {
+        ownEvents.remove(userId);
+        timelines.remove(userId);
+        for (long followerId : friendGraph.getFollowers(userId)) {
+            timelines.remove(followerId);
+        }
+    }
+
+    /**
+     * Буфер публикуется до заполнения, поэтому события, записанные во время заполнения,
+     * попадут в него через publish, а повторы отбрасываются по event_id.
+     */
+    private FeedRingBuffer createTimeline(Long userId, long[] friends) {
+        evictIfFull(timelines);
+        FeedRingBuffer timeline = new FeedRingBuffer(bufferSize);
+        FeedRingBuffer existing = timelines.putIfAbsent(userId, timeline);
+        if (existing != null) {
+            return existing;
+        }
+
+        for (Feed feed : merge(ownEventBuffers(friends), bufferSize)) {
+            timeline.add(feed);
+        }
+        return timeline;
+    }
+
+    /**
+     * Буферы событий авторов. Незаполненные буферы заполняются одним запросом: сначала читается
+     * очередь записи, затем база, чтобы событие, записанное между двумя чтениями, не потерялось.
+     */
+    private List<FeedRingBuffer> ownEventBuffers(long[] authorIds) {
+        evictIfFull(ownEvents);
+        List<FeedRingBuffer> buffers = new ArrayList<>(authorIds.length);
+        Map<Long, FeedRingBuffer> toLoad = new HashMap<>();
+        for (long authorId : authorIds) {
+            FeedRingBuffer buffer = ownEvents.computeIfAbsent(authorId, id -> new FeedRingBuffer(bufferSize));
+            buffer.touch();
+            if (!buffer.isLoaded()) {
+                toLoad.put(authorId, buffer);
+            }
+            buffers.add(buffer);
+        }
+        if (toLoad.isEmpty()) {
+            return buffers;
+        }
+
+        for (Feed feed : feedAppender.getPending()) {
+            FeedRingBuffer buffer = toLoad.get(feed.getUserId());
+            if (buffer != null) {
+                buffer.add(feed);
+            }
+        }
+        feedsStorage.streamLatestFeeds(toLoad.keySet(), bufferSize, feed -> toLoad.get(feed.getUserId()).add(feed));
+        toLoad.values().forEach(FeedRingBuffer::markLoaded);
+        log.debug("Загружены последние события {} пользователей", toLoad.size());
+        return buffers;
+    }
+
+    /**
+     * Вытесняет восьмую часть буферов, которые дольше всех не читались. Точный порядок LRU
+     * не ведется, чтобы не брать блокировку при каждом обращении, - у буфера хранится время
+     * последнего чтения, и вытеснение сортирует эти отметки.
+     */
+    private void evictIfFull(Map<Long, FeedRingBuffer> buffers) {
+        if (buffers.size() < maxBuffers) {
+            return;
+        }
+        synchronized (buffers) {
+            if (buffers.size() < maxBuffers) {
+                return;
+            }
+            List<Map.Entry<Long, FeedRingBuffer>> entries = new ArrayList<>(buffers.entrySet());
+            long[] accessTimes = new long[entries.size()];
+            for (int i = 0; i < accessTimes.length; i++) {
+                accessTimes[i] = entries.get(i).getValue().lastAccess;
+            }
+            Arrays.sort(accessTimes);
+            long threshold = accessTimes[Math.max(0, accessTimes.length / 8 - 1)];
+            int evicted = 0;
+            for (Map.Entry<Long, FeedRingBuffer> entry : entries) {
+                if (entry.getValue().lastAccess <= threshold && buffers.remove(entry.getKey(), entry.getValue())) {
+                    evicted++;
+                }
+            }
+            log.debug("Вытеснено {} давно не читанных буферов ленты", evicted);
+        }
+    }
+
+    /**
+     * Слияние буферов по убыванию event_id через кучу курсоров.
+     */
+    private static List<Feed> merge(List<FeedRingBuffer> buffers, int limit) {
+        PriorityQueue<Cursor> heap = new PriorityQueue<>(Math.max(1, buffers.size()), NEWEST_FIRST);
+        for (FeedRingBuffer buffer : buffers) {
+            Feed[] events = buffer.snapshot();
+            if (events.length > 0) {
+                heap.add(new Cursor(events));
+            }
+        }
+
+        List<Feed> merged = new ArrayList<>(limit);
+        while (merged.size() < limit && !heap.isEmpty()) {
+            Cursor cursor = heap.poll();
+            merged.add(cursor.current());
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Кольцевой буфер последних событий, упорядоченный по event_id. При переполнении
+     * вытесняется самое старое событие.
+     */
+    private static class FeedRingBuffer {
+        private final Feed[] events;
+        private int head;
+        private int size;
+        private volatile boolean loaded;
+        private volatile long lastAccess = System.nanoTime();
+
+        private FeedRingBuffer(int capacity) {
+            this.events = new Feed[capacity];
+        }
+
+        private boolean isLoaded() {
+            return loaded;
+        }
+
+        private void markLoaded() {
+            loaded = true;
+        }
+
+        private void touch() {
+            lastAccess = System.nanoTime();
+        }
+
+        /**
+         * События почти всегда приходят по возрастанию event_id, поэтому место для вставки
+         * ищется с нового конца.
+         */
+        private synchronized void add(Feed feed) {
+            long eventId = feed.getEventId();
+            if (size == events.length && eventId <= at(0).getEventId()) {
+                return;
+            }
+
+            int position = size;
+            while (position > 0 && at(position - 1).getEventId() >= eventId) {
+                if (at(position - 1).getEventId() == eventId) {
+                    return;
+                }
+                position--;
+            }
+            if (size == events.length) {
+                head = (head + 1) % events.length;
+                size--;
+                position--;
+            }
+            for (int i = size; i > position; i--) {
+                set(i, at(i - 1));
+            }
+            set(position, feed);
+            size++;
+        }
+
+        private synchronized List<Feed> latest(int limit) {
+            int count = Math.min(limit, size);
+            List<Feed> latest = new ArrayList<>(count);
+            for (int i = size - 1; i >= size - count; i--) {
+                latest.add(at(i));
+            }
+            return latest;
+        }
+
+        private synchronized Feed[] snapshot() {
+            Feed[] snapshot = new Feed[size];
+            for (int i = 0; i < size; i++) {
+                snapshot[i] = at(size - 1 - i);
+            }
+            return snapshot;
+        }
+
+        private Feed at(int index) {
+            return events[(head + index) % events.length];
+        }
+
+        private void set(int index, Feed feed) {
+            events[(head + index) % events.length] = feed;
+        }
+    }
+
+    private static class Cursor {
+        private final Feed[] events;
+        private int position;
+
+        private Cursor(Feed[] events) {
+            this.events = events;
+        }
+
+        private Feed current() {
+            return events[position];
+        }
+
+        private boolean advance() {
+            return ++position < events.length;
+        }
+    }
+}
@@ -2,54 +2,201 @@ package ru.yandex.practicum.filmorate.service;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidateException;
+import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.ImportRecord;
+import ru.yandex.practicum.filmorate.model.ImportResult;
+import ru.yandex.practicum.filmorate.model.Like;
+import ru.yandex.practicum.filmorate.model.LikeBatchResult;
+import ru.yandex.practicum.filmorate.model.LikeOperation;
+import ru.yandex.practicum.filmorate.model.Operation;
+import ru.yandex.practicum.filmorate.model.Suggestion;
+import ru.yandex.practicum.filmorate.model.TrendingWindow;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.DirectorStorage;
 import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.MpaStorage;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
+import ru.yandex.practicum.filmorate.storage.memory.FilmAggregateCache;
+import ru.yandex.practicum.filmorate.storage.memory.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.memory.LikedFilmBitmaps;
+import ru.yandex.practicum.filmorate.storage.memory.PopularityIndex;
+import ru.yandex.practicum.filmorate.storage.memory.SuggestIndex;
+import ru.yandex.practicum.filmorate.storage.memory.TopReviewsCache;
+import ru.yandex.practicum.filmorate.storage.memory.TrendingScores;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
 @Service
 @Slf4j
 @AllArgsConstructor
 public class FilmService {
     private final FilmStorage filmStorage;
+    private final GenreStorage genreStorage;
+    private final MpaStorage mpaStorage;
+    private final DirectorStorage directorStorage;
     private final UserStorage userStorage;
     private final FeedService feedService;
+    private final FilmAggregateCache filmAggregateCache;
+    private final PopularityIndex popularityIndex;
+    private final TrendingScores trendingScores;
+    private final FilmSearchIndex filmSearchIndex;
+    private final SuggestIndex suggestIndex;
+    private final RecommendationUpdater recommendationUpdater;
+    private final LikedFilmBitmaps likedFilmBitmaps;
+    private final TopReviewsCache topReviewsCache;
+    @Value("${filmorate.popular.use-index:true}")
+    private final boolean usePopularityIndex;
+    private final TransactionTemplate transactionTemplate;
+    @Value("${filmorate.likes.batch.max-size:10000}")
+    private final int maxLikeBatchSize;
 
 
     public Film createFilm(Film film) {
         validateNewFilm(film);
-        return filmStorage.createFilm(film);
+        Film created = filmStorage.createFilm(film);
+        popularityIndex.putFilm(created);
+        filmSearchIndex.putFilm(created);
+        return created;
+    }
+
+    /**
+     * Добавляет порцию фильмов из импорта. Строки с ошибками пропускаются, остальные
+     * записываются одним пакетом. Результат - по строке на каждую входную запись.
+     */
+    public List<ImportResult> importFilms(List<ImportRecord<Film>> records) {
+        Set<Long> directorIds = new HashSet<>();
+        for (ImportRecord<Film> record : records) {
+            if (record.getValue() != null && record.getValue().getDirectors() != null) {
+                record.getValue().getDirectors().stream()
+                        .filter(director -> director != null && director.getId() != null)
+                        .forEach(director -> directorIds.add(director.getId()));
+            }
+        }
+        Map<Long, Director> directors = directorStorage.findByIds(directorIds);
+
+        List<ImportResult> results = new ArrayList<>(records.size());
+        List<ImportRecord<Film>> valid = new ArrayList<>(records.size());
+        List<Long> sourceIds = new ArrayList<>(records.size());
+        for (ImportRecord<Film> record : records) {
+            try {
+                prepareImportedFilm(record.getValue(), directors);
+            } catch (ValidateException | NotFoundException e) {
+                results.add(ImportResult.failed(record.getLine(), e.getMessage()));
+                continue;
+            }
+            valid.add(record);
+            sourceIds.add(record.getValue().getId());
+        }
+        if (valid.isEmpty()) {
+            return results;
+        }
+
+        List<Film> films = new ArrayList<>(valid.size());
+        valid.forEach(record -> films.add(record.getValue()));
+        try {
+            filmStorage.createFilms(films);
+        } catch (DataAccessException e) {
+            log.error("Не удалось записать порцию импортируемых фильмов", e);
+            valid.forEach(record -> results.add(ImportResult.failed(record.getLine(), "Ошибка записи фильма")));
+            return results;
+        }
+
+        for (int i = 0; i < valid.size(); i++) {
+            Film film = films.get(i);
+            popularityIndex.putFilm(film);
+            filmSearchIndex.putFilm(film);
+            results.add(ImportResult.created(valid.get(i).getLine(), sourceIds.get(i), film.getId()));
+        }
+        return results;
+    }
+
+    /**
+     * Проверяет импортируемый фильм и заменяет ссылки на рейтинг, жанры и режиссеров
+     * значениями из справочников. Повторяющиеся жанры отбрасываются.
+     */
+    private void prepareImportedFilm(Film film, Map<Long, Director> directors) {
+        if (film == null || film.getReleaseDate() == null || film.getDescription() == null
+                || film.getDuration() == null || film.getMpa() == null || film.getMpa().getId() == null) {
+            throw new ValidateException("Не заданы обязательные поля фильма");
+        }
+        validateNewFilm(film);
+        film.setMpa(mpaStorage.getMpaById(film.getMpa().getId()));
+
+        Map<Long, Genre> genres = new LinkedHashMap<>();
+        for (Genre genre : film.getGenres() == null ? List.<Genre>of() : film.getGenres()) {
+            Genre known = genre == null ? null : genreStorage.getGenreById(genre.getId());
+            if (known == null) {
+                throw new NotFoundException("Не найден жанр фильма");
+            }
+            genres.putIfAbsent(known.getId(), known);
+        }
+        film.setGenres(new ArrayList<>(genres.values()));
+
+        LinkedHashSet<Director> filmDirectors = new LinkedHashSet<>();
+        for (Director director : film.getDirectors() == null ? Set.<Director>of() : film.getDirectors()) {
+            Director known = director == null ? null : directors.get(director.getId());
+            if (known == null) {
+                throw new NotFoundException("Не найден режиссер фильма");
+            }
+            filmDirectors.add(known);
+        }
+        film.setDirectors(filmDirectors);
+        film.setUsersWhoLiked(new HashSet<>());
     }
 
     public Film updateFilm(Film film) {
         validateNewFilm(film);
-        return filmStorage.updateFilm(film);
+        Film updated = filmStorage.updateFilm(film);
+        popularityIndex.putFilm(updated);
+        filmSearchIndex.putFilm(updated);
+        return updated;
     }
 
     public List<Film> getAllFilms() {
         return filmStorage.getAllFilms();
     }
 
+    public List<Film> getFilmsPage(Long afterId, Integer limit) {
+        PageValidator.validate(afterId, limit, true);
+        return filmStorage.getFilmsPage(afterId, limit);
+    }
+
+    public void streamAllFilms(Consumer<Film> consumer) {
+        filmStorage.streamAllFilms(consumer);
+    }
+
     public Film getFilmById(Long filmId) {
-        if (filmStorage.getFilmById(filmId) == null) {
+        Film film = filmAggregateCache.get(filmId, filmStorage::getFilmById);
+        if (film == null) {
             log.error("Фильм не может быть равен null");
             throw new NotFoundException("Фильм не может быть равен null");
-        } else {
-            return filmStorage.getFilmById(filmId);
         }
+        return film;
     }
 
     public void setLike(Long userId, Long filmId) {
 
         User user = userStorage.getUserbyId(userId);
-        Film film = filmStorage.getFilmById(filmId);
+        Film film = filmAggregateCache.get(filmId, filmStorage::getFilmById);
 
         if (user == null) {
             log.error("Не найден пользователь с id = {}", userId);
@@ -60,14 +207,20 @@ public class FilmService {
             throw new NotFoundException("Не найден фильм с указанным id");
         }
 
-        filmStorage.addLike(filmId, userId);
+        long likedAt = System.currentTimeMillis();
+        if (filmStorage.addLike(filmId, userId, likedAt)) {
+            popularityIndex.changeLikes(filmId, 1);
+            trendingScores.addLike(filmId, likedAt);
+            recommendationUpdater.likeAdded(userId, filmId);
+            likedFilmBitmaps.addLike(userId, filmId);
+        }
         feedService.addLike(userId, filmId);
     }
 
     public void removeLike(Long userId, Long filmId) {
 
         User user = userStorage.getUserbyId(userId);
-        Film film = filmStorage.getFilmById(filmId);
+        Film film = filmAggregateCache.get(filmId, filmStorage::getFilmById);
 
         if (user == null) {
             log.error("Не найден пользователь с id = {}", userId);
@@ -78,16 +231,140 @@ public class FilmService {
             throw new NotFoundException("Не найден фильм с указанным id");
         }
 
-        filmStorage.removeLike(filmId, userId);
+        Long likedAt = filmStorage.getLikeTimestamp(filmId, userId);
+        if (filmStorage.removeLike(filmId, userId)) {
+            popularityIndex.changeLikes(filmId, -1);
+            if (likedAt != null) {
+                trendingScores.removeLike(filmId, likedAt);
+            }
+            recommendationUpdater.likeRemoved(userId, filmId);
+            likedFilmBitmaps.removeLike(userId, filmId);
+        }
         feedService.removeLike(userId, filmId);
     }
 
+    /**
+     * Применяет пакет операций с лайками. Пользователи и фильмы проверяются двумя запросами
+     * на весь пакет, повторы одной пары схлопываются до последней операции, а изменения
+     * пишутся пакетными запросами в одной транзакции. Операции с ошибками пропускаются
+     * и возвращаются с причиной.
+     */
+    public LikeBatchResult applyLikes(List<LikeOperation> operations) {
+        if (operations == null || operations.isEmpty()) {
+            log.error("Пустой пакет лайков");
+            throw new ValidateException("Пакет лайков не может быть пустым");
+        }
+        if (operations.size() > maxLikeBatchSize) {
+            log.error("Пакет из {} лайков превышает допустимый размер", operations.size());
+            throw new ValidateException("В пакете может быть не больше " + maxLikeBatchSize + " операций");
+        }
+
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> filmIds = new HashSet<>();
+        for (LikeOperation operation : operations) {
+            if (operation != null && operation.getUserId() != null && operation.getFilmId() != null) {
+                userIds.add(operation.getUserId());
+                filmIds.add(operation.getFilmId());
+            }
+        }
+        Set<Long> existingUsers = userStorage.findExistingIds(userIds);
+        Set<Long> existingFilms = filmStorage.findExistingIds(filmIds);
+
+        Map<Integer, String> errors = new TreeMap<>();
+        List<LikeOperation> accepted = new ArrayList<>();
+        Map<Like, Boolean> lastOperations = new LinkedHashMap<>();
+        for (int i = 0; i < operations.size(); i++) {
+            LikeOperation operation = operations.get(i);
+            if (operation == null || operation.getUserId() == null || operation.getFilmId() == null) {
+                errors.put(i, "Не указан пользователь или фильм");
+            } else if (!Operation.ADD.name().equals(operation.getOp())
+                    && !Operation.REMOVE.name().equals(operation.getOp())) {
+                errors.put(i, "Операция должна быть ADD или REMOVE");
+            } else if (!existingUsers.contains(operation.getUserId())) {
+                errors.put(i, "Не найден пользователь с id = " + operation.getUserId());
+            } else if (!existingFilms.contains(operation.getFilmId())) {
+                errors.put(i, "Не найден фильм с id = " + operation.getFilmId());
+            } else {
+                accepted.add(operation);
+                lastOperations.put(new Like(operation.getUserId(), operation.getFilmId(), null),
+                        Operation.ADD.name().equals(operation.getOp()));
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        List<Like> toAdd = new ArrayList<>();
+        List<Like> toRemove = new ArrayList<>();
+        lastOperations.forEach((like, add) -> {
+            if (add) {
+                toAdd.add(new Like(like.getUserId(), like.getFilmId(), now));
+            } else {
+                toRemove.add(like);
+            }
+        });
+        List<List<Like>> changed = transactionTemplate.execute(status ->
+                List.of(filmStorage.addLikes(toAdd), filmStorage.removeLikes(toRemove)));
+        List<Like> added = changed.get(0);
+        List<Like> removed = changed.get(1);
+
+        for (Like like : added) {
+            popularityIndex.changeLikes(like.getFilmId(), 1);
+            trendingScores.addLike(like.getFilmId(), like.getCreatedAt());
+            recommendationUpdater.likeAdded(like.getUserId(), like.getFilmId());
+            likedFilmBitmaps.addLike(like.getUserId(), like.getFilmId());
+        }
+        for (Like like : removed) {
+            popularityIndex.changeLikes(like.getFilmId(), -1);
+            if (like.getCreatedAt() != null) {
+                trendingScores.removeLike(like.getFilmId(), like.getCreatedAt());
+            }
+            recommendationUpdater.likeRemoved(like.getUserId(), like.getFilmId());
+            likedFilmBitmaps.removeLike(like.getUserId(), like.getFilmId());
+        }
+        if (!accepted.isEmpty()) {
+            feedService.recordLikes(accepted);
+        }
+
+        log.info("Пакет лайков: принято {}, добавлено {}, удалено {}, отклонено {}",
+                accepted.size(), added.size(), removed.size(), errors.size());
+        return new LikeBatchResult(accepted.size(), added.size(), removed.size(), errors);
+    }
+
     public List<Film> getMostPopularFilms(Integer count, Integer genreId, Integer year) {
-        return filmStorage.getMostPopularFilms(count, genreId, year);
+        if (!usePopularityIndex || !popularityIndex.isReady()) {
+            return filmStorage.getMostPopularFilms(count, genreId, year);
+        }
+
+        List<Long> filmIds = popularityIndex.getTop(count, genreId, year);
+        return filmAggregateCache.getAll(filmIds, filmStorage::getFilmsByIds);
     }
 
-    public List<Film> getCommonFilms(Integer userId, Integer friendId) {
-        return filmStorage.getCommonFilms(userId, friendId);
+    public List<Film> getTrendingFilms(String window, Integer count) {
+        TrendingWindow trendingWindow;
+        try {
+            trendingWindow = TrendingWindow.valueOf(window.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.error("Неизвестное окно популярности: {}", window);
+            throw new ValidateException("Окно должно быть одним из значений hour, day, week");
+        }
+
+        List<Long> filmIds = trendingScores.getTop(trendingWindow, count);
+        return filmAggregateCache.getAll(filmIds, filmStorage::getFilmsByIds);
+    }
+
+    public List<Film> getCommonFilms(List<Long> userIds) {
+        if (userIds == null || userIds.isEmpty() || userIds.contains(null)) {
+            log.error("Не указаны пользователи для поиска общих фильмов");
+            throw new ValidateException("Нужно указать хотя бы одного пользователя");
+        }
+        List<Long> distinctUserIds = new ArrayList<>(new LinkedHashSet<>(userIds));
+
+        if (!likedFilmBitmaps.isReady()) {
+            return filmStorage.getCommonFilms(distinctUserIds);
+        }
+
+        List<Long> filmIds = likedFilmBitmaps.getCommonFilmIds(distinctUserIds);
+        popularityIndex.sortByLikes(filmIds);
+        return filmAggregateCache.getAll(filmIds, filmStorage::getFilmsByIds);
     }
 
     public List<Film> findFilmsByDirector(Long id, Optional<String> sortBy) {
@@ -106,7 +383,35 @@ public class FilmService {
     }
 
     public List<Film> getSearchResults(String query, String by) {
-        return filmStorage.searchBy(query, by);
+        if (!filmSearchIndex.isReady()) {
+            return filmStorage.searchBy(query, by);
+        }
+
+        Set<String> fields = Set.of(by.split(","));
+        boolean byTitle = fields.contains("title");
+        boolean byDirector = fields.contains("director");
+        if (!byTitle && !byDirector) {
+            return new ArrayList<>();
+        }
+
+        List<Long> filmIds = filmSearchIndex.search(query, byTitle, byDirector);
+        return filmAggregateCache.getAll(filmIds, filmStorage::getFilmsByIds);
+    }
+
+    public List<Suggestion> getSuggestions(String prefix, Integer limit) {
+        if (prefix == null || prefix.isBlank()) {
+            log.error("Префикс для подсказок не может быть пустым");
+            throw new ValidateException("Префикс для подсказок не может быть пустым");
+        }
+        if (limit == null || limit <= 0 || limit > suggestIndex.getMaxLimit()) {
+            log.error("Некорректное количество подсказок: {}", limit);
+            throw new ValidateException("Количество подсказок должно быть от 1 до " + suggestIndex.getMaxLimit());
+        }
+        if (!suggestIndex.isReady()) {
+            return new ArrayList<>();
+        }
+
+        return suggestIndex.suggest(prefix, limit);
     }
 
     public void validateNewFilm(Film film) throws ValidateException {
@@ -134,5 +439,11 @@ public class FilmService {
 
     public void deleteFilm(Long id) {
         filmStorage.deleteFilm(id);
+        popularityIndex.removeFilm(id);
+        trendingScores.removeFilm(id);
+        filmSearchIndex.removeFilm(id);
+        recommendationUpdater.filmRemoved(id);
+        likedFilmBitmaps.removeFilm(id);
+        topReviewsCache.invalidate(id);
     }
 }
@@ -0,0 +1,41 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.memory.PopularityIndex;
+
+/**
+ * Периодически сверяет счетчики лайков фильмов с таблицей likes и исправляет расхождения,
+ * затем приводит к исправленным счетчикам рейтинг популярности в памяти.
+ */
+@Service
+@Slf4j
+@AllArgsConstructor
+public class LikeCountReconciliationJob {
+    private final FilmStorage filmStorage;
+    private final PopularityIndex popularityIndex;
+
+
+    @Scheduled(
+            initialDelayString = "${filmorate.likes.reconcile-interval-ms:3600000}",
+            fixedDelayString = "${filmorate.likes.reconcile-interval-ms:3600000}"
+    )
+    public void reconcile() {
+        int fixed = filmStorage.reconcileLikeCounts();
+        if (fixed > 0) {
+            log.warn("Исправлены счетчики лайков у {} фильмов", fixed);
+        } else {
+            log.info("Счетчики лайков совпадают с таблицей лайков");
+        }
+
+        if (popularityIndex.isReady()) {
+            int synced = popularityIndex.syncLikes(filmStorage.getLikeCounts());
+            if (synced > 0) {
+                log.warn("Исправлены лайки у {} фильмов в рейтинге популярности", synced);
+            }
+        }
+    }
+}
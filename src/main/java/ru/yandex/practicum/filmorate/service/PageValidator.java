@@ -0,0 +1,29 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.yandex.practicum.filmorate.exception.ValidateException;
+
+/**
+ * Общая проверка параметров постраничной выдачи: курсора after и размера страницы limit.
+ */
+@Slf4j
+public final class PageValidator {
+
+    private PageValidator() {
+    }
+
+    /**
+     * Курсор не может быть отрицательным, размер страницы - только положительный.
+     * Если limitRequired = false, limit можно не указывать.
+     */
+    public static void validate(Long after, Integer limit, boolean limitRequired) {
+        if (limit == null ? limitRequired : limit <= 0) {
+            log.error("Размер страницы должен быть положительным");
+            throw new ValidateException("Размер страницы должен быть положительным");
+        }
+        if (after != null && after < 0) {
+            log.error("Курсор страницы не может быть отрицательным");
+            throw new ValidateException("Курсор страницы не может быть отрицательным");
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.Recommendation;
+import ru.yandex.practicum.filmorate.storage.RecommendationStorage;
+import ru.yandex.practicum.filmorate.storage.memory.RecommendationModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Пакетный расчет рекомендаций для всех пользователей в таблицу user_recommendations.
+ * Матрица лайков читается один раз, пользователи делятся на диапазоны идентификаторов,
+ * которые считаются параллельно и сохраняются каждый в своей транзакции вместе с отметкой
+ * о выполнении. Прерванный запуск продолжается с необработанных диапазонов при следующем
+ * срабатывании расписания или сразу после старта приложения.
+ */
+@Service
+@Slf4j
+public class RecommendationBatchJob {
+    private final RecommendationModel recommendationModel;
+    private final RecommendationStorage recommendationStorage;
+    private final int limit;
+    private final long rangeSize;
+    private final int parallelism;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public RecommendationBatchJob(RecommendationModel recommendationModel,
+                                  RecommendationStorage recommendationStorage,
+                                  @Value("${filmorate.recommendations.limit:20}") int limit,
+                                  @Value("${filmorate.recommendations.batch.range-size:1000}") long rangeSize,
+                                  @Value("${filmorate.recommendations.batch.parallelism:0}") int parallelism) {
+        this.recommendationModel = recommendationModel;
+        this.recommendationStorage = recommendationStorage;
+        this.limit = limit;
+        this.rangeSize = rangeSize;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Если предыдущий запуск не был завершен, продолжает его в фоне после старта приложения.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinishedRun() {
+        if (recommendationStorage.findUnfinishedRun() == null) {
+            return;
+        }
+        Thread thread = new Thread(this::run, "recommendation-batch-resume");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Scheduled(cron = "${filmorate.recommendations.batch.cron:0 0 3 * * *}")
+    public void run() {
+        if (!running.compareAndSet(false, true)) {
+            log.warn("Пакетный расчет рекомендаций уже выполняется");
+            return;
+        }
+
+        try {
+            Long runId = recommendationStorage.findUnfinishedRun();
+            Set<Long> completed;
+            if (runId == null) {
+                runId = recommendationStorage.startRun();
+                completed = Set.of();
+                log.info("Начат пакетный расчет рекомендаций, запуск {}", runId);
+            } else {
+                completed = recommendationStorage.getCompletedRanges(runId);
+                log.info("Продолжен пакетный расчет рекомендаций, запуск {}, готово диапазонов: {}",
+                        runId, completed.size());
+            }
+
+            RecommendationModel.Snapshot snapshot = recommendationModel.loadSnapshot();
+            long[] userIds = snapshot.getUserIds();
+            long[] rangeStarts = rangeStarts(userIds);
+            int rangeCount = rangeStarts.length - 1;
+
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                RangeContext context = new RangeContext(recommendationStorage, runId, snapshot, userIds, completed,
+                        limit, rangeStarts);
+                pool.invoke(new RangeTask(context, 0, rangeCount));
+            } finally {
+                pool.shutdown();
+            }
+
+            recommendationStorage.finishRun(runId, rangeStarts[rangeCount]);
+            log.info("Пакетный расчет рекомендаций завершен: {} пользователей, {} диапазонов",
+                    userIds.length, rangeCount);
+        } catch (RuntimeException e) {
+            log.error("Пакетный расчет рекомендаций прерван, он будет продолжен при следующем запуске", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Границы диапазонов: начала отрезков по range-size, в которых есть пользователи, и в конце -
+     * конец последнего такого отрезка. Диапазон тянется до начала следующего, поэтому пустые
+     * отрезки между редкими id не порождают отдельных диапазонов, а строки удаленных пользователей
+     * в них все равно стираются. Первый диапазон начинается с 0.
+     */
+    private long[] rangeStarts(long[] userIds) {
+        if (userIds.length == 0) {
+            return new long[]{0};
+        }
+        long[] starts = new long[userIds.length + 1];
+        int size = 0;
+        for (long userId : userIds) {
+            long start = size == 0 ? 0 : userId / rangeSize * rangeSize;
+            if (size == 0 || start > starts[size - 1]) {
+                starts[size++] = start;
+            }
+        }
+        starts[size++] = userIds[userIds.length - 1] / rangeSize * rangeSize + rangeSize;
+        return Arrays.copyOf(starts, size);
+    }
+
+    /**
+     * Общие для всех задач одного запуска данные.
+     */
+    private static final class RangeContext {
+        private final RecommendationStorage recommendationStorage;
+        private final Long runId;
+        private final RecommendationModel.Snapshot snapshot;
+        private final long[] userIds;
+        private final Set<Long> completed;
+        private final int limit;
+        private final long[] rangeStarts;
+
+        private RangeContext(RecommendationStorage recommendationStorage, Long runId,
+                             RecommendationModel.Snapshot snapshot, long[] userIds, Set<Long> completed,
+                             int limit, long[] rangeStarts) {
+            this.recommendationStorage = recommendationStorage;
+            this.runId = runId;
+            this.snapshot = snapshot;
+            this.userIds = userIds;
+            this.completed = completed;
+            this.limit = limit;
+            this.rangeStarts = rangeStarts;
+        }
+    }
+
+    /**
+     * Делит отрезок диапазонов пополам, пока не останется один диапазон.
+     */
+    private static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient RangeContext context;
+        private final int from;
+        private final int to;
+
+        private RangeTask(RangeContext context, int from, int to) {
+            this.context = context;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    computeRange(from);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(context, from, middle), new RangeTask(context, middle, to));
+        }
+
+        private void computeRange(int range) {
+            long rangeStart = context.rangeStarts[range];
+            long rangeEnd = context.rangeStarts[range + 1];
+            if (context.completed.contains(rangeStart)) {
+                return;
+            }
+
+            int first = position(rangeStart);
+            int last = position(rangeEnd);
+            double[] buffer = context.snapshot.newBuffer();
+            List<Recommendation> recommendations = new ArrayList<>();
+            for (int i = first; i < last; i++) {
+                recommendations.addAll(context.snapshot.recommend(context.userIds[i], context.limit, buffer));
+            }
+
+            context.recommendationStorage.saveRange(context.runId, rangeStart, rangeEnd, recommendations);
+        }
+
+        private int position(long userId) {
+            int position = Arrays.binarySearch(context.userIds, userId);
+            return position >= 0 ? position : -position - 1;
+        }
+    }
+}
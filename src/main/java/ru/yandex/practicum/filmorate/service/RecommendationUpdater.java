@@ -0,0 +1,129 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.storage.memory.RecommendationModel;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Получает изменения лайков и применяет их к модели рекомендаций в отдельном потоке.
+ * Очередь ограничена: если она заполнена, изменение отбрасывается, счетчик отброшенных
+ * растет, а модель помечается устаревшей и будет пересобрана из базы.
+ */
+@Service
+@Slf4j
+public class RecommendationUpdater {
+    private final RecommendationModel recommendationModel;
+    private final BlockingQueue<LikeChange> queue;
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private Thread worker;
+
+    public RecommendationUpdater(RecommendationModel recommendationModel,
+                                 @Value("${filmorate.recommendations.queue-capacity:10000}") int queueCapacity) {
+        this.recommendationModel = recommendationModel;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    @PostConstruct
+    public void start() {
+        worker = new Thread(this::run, "recommendation-updater");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        worker.interrupt();
+        worker.join();
+    }
+
+    public void likeAdded(Long userId, Long filmId) {
+        offer(new LikeChange(userId, filmId, true));
+    }
+
+    public void likeRemoved(Long userId, Long filmId) {
+        offer(new LikeChange(userId, filmId, false));
+    }
+
+    /**
+     * Удаление фильма затрагивает всех, кто его лайкал, поэтому модель просто пересобирается.
+     */
+    public void filmRemoved(Long filmId) {
+        recommendationModel.markStale();
+    }
+
+    /**
+     * Периодически пишет в лог глубину очереди и счетчики применённых и отброшенных изменений.
+     */
+    @Scheduled(fixedDelayString = "${filmorate.metrics.log-interval-ms:60000}")
+    public void logStats() {
+        log.info("Обновления модели рекомендаций: в очереди {}, применено {}, отброшено {}",
+                queue.size(), applied.get(), dropped.get());
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getApplied() {
+        return applied.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void offer(LikeChange change) {
+        if (!queue.offer(change)) {
+            recommendationModel.markStale();
+            if (dropped.getAndIncrement() % 1000 == 0) {
+                log.warn("Очередь обновлений модели рекомендаций заполнена, отброшено изменений: {}",
+                        dropped.get());
+            }
+        }
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            LikeChange change;
+            try {
+                change = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                if (change.added) {
+                    recommendationModel.addLike(change.userId, change.filmId);
+                } else {
+                    recommendationModel.removeLike(change.userId, change.filmId);
+                }
+                applied.incrementAndGet();
+            } catch (RuntimeException e) {
+                recommendationModel.markStale();
+                log.error("Не удалось применить изменение лайка к модели рекомендаций", e);
+            }
+        }
+    }
+
+    private static class LikeChange {
+        private final long userId;
+        private final long filmId;
+        private final boolean added;
+
+        private LikeChange(long userId, long filmId, boolean added) {
+            this.userId = userId;
+            this.filmId = filmId;
+            this.added = added;
+        }
+    }
+}
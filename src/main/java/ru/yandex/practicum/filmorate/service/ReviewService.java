@@ -4,8 +4,10 @@ import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.ValidateException;
 import ru.yandex.practicum.filmorate.model.Review;
 import ru.yandex.practicum.filmorate.storage.ReviewStorage;
+import ru.yandex.practicum.filmorate.storage.memory.TopReviewsCache;
 
 import java.util.List;
 import java.util.Optional;
@@ -16,10 +18,27 @@ import java.util.Optional;
 public class ReviewService {
     private final ReviewStorage reviewStorage;
     private final FeedService feedService;
+    private final TopReviewsCache topReviewsCache;
+
+
+    /**
+     * Первая страница отзывов фильма берется из кеша, если помещается в него,
+     * остальные страницы читаются из базы по курсору (afterUseful, afterId).
+     */
+    public List<Review> findAll(Optional<Long> filmId, Optional<Integer> count,
+                                Optional<Integer> afterUseful, Optional<Long> afterId) {
+        int limit = count.orElse(10);
+        PageValidator.validate(afterId.orElse(null), limit, true);
+        if (afterUseful.isPresent() != afterId.isPresent()) {
+            log.error("Курсор страницы отзывов задан не полностью");
+            throw new ValidateException("Параметры afterUseful и afterId задаются вместе");
+        }
 
-
-    public List<Review> findAll(Optional<Long> filmId, Optional<Integer> count) {
-        return reviewStorage.findAll(filmId.orElse(null), count.orElse(10));
+        if (filmId.isPresent() && afterUseful.isEmpty() && limit <= topReviewsCache.getSize()) {
+            return topReviewsCache.get(filmId.get(), limit,
+                    id -> reviewStorage.findAll(id, null, null, topReviewsCache.getSize()));
+        }
+        return reviewStorage.findAll(filmId.orElse(null), afterUseful.orElse(null), afterId.orElse(null), limit);
     }
 
     public Review findById(Long id) {
@@ -40,12 +59,14 @@ public class ReviewService {
         }
 
         review = reviewStorage.create(review);
+        topReviewsCache.invalidate(review.getFilmId());
         feedService.addReview(review.getUserId(), review.getReviewId());
         return review;
     }
 
     public Review update(Review review) {
         review = reviewStorage.update(review);
+        topReviewsCache.invalidate(review.getFilmId());
         feedService.updateReview(review.getUserId(), review.getReviewId());
         return review;
 
@@ -54,22 +75,32 @@ public class ReviewService {
     public String delete(Long id) {
         Review reviewToDelete = findById(id);
         feedService.removeReview(id, reviewToDelete.getUserId());
-        return reviewStorage.delete(id);
+        String result = reviewStorage.delete(id);
+        topReviewsCache.invalidate(reviewToDelete.getFilmId());
+        return result;
     }
 
     public void addLike(Long reviewId, Long userId) {
+        Review review = findById(reviewId);
         reviewStorage.addLike(reviewId, userId);
+        topReviewsCache.invalidate(review.getFilmId());
     }
 
     public void deleteLike(Long reviewId, Long userId) {
+        Review review = findById(reviewId);
         reviewStorage.deleteLike(reviewId, userId);
+        topReviewsCache.invalidate(review.getFilmId());
     }
 
     public void addDislike(Long reviewId, Long userId) {
+        Review review = findById(reviewId);
         reviewStorage.addDislike(reviewId, userId);
+        topReviewsCache.invalidate(review.getFilmId());
     }
 
     public void deleteDislike(Long reviewId, Long userId) {
+        Review review = findById(reviewId);
         reviewStorage.deleteDislike(reviewId, userId);
+        topReviewsCache.invalidate(review.getFilmId());
     }
 }
@@ -2,26 +2,68 @@ package ru.yandex.practicum.filmorate.service;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidateException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FriendEdge;
+import ru.yandex.practicum.filmorate.model.FriendPath;
+import ru.yandex.practicum.filmorate.model.ImportRecord;
+import ru.yandex.practicum.filmorate.model.ImportResult;
+import ru.yandex.practicum.filmorate.model.Like;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserImportLine;
 import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.ReviewStorage;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
+import ru.yandex.practicum.filmorate.storage.memory.FilmAggregateCache;
+import ru.yandex.practicum.filmorate.storage.memory.FriendGraph;
+import ru.yandex.practicum.filmorate.storage.memory.FriendPathIndex;
+import ru.yandex.practicum.filmorate.storage.memory.FriendSuggestions;
+import ru.yandex.practicum.filmorate.storage.memory.LikedFilmBitmaps;
+import ru.yandex.practicum.filmorate.storage.memory.LongLongHashMap;
+import ru.yandex.practicum.filmorate.storage.memory.PopularityIndex;
+import ru.yandex.practicum.filmorate.storage.memory.RecommendationModel;
+import ru.yandex.practicum.filmorate.storage.memory.TopReviewsCache;
+import ru.yandex.practicum.filmorate.storage.memory.TrendingScores;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 @Service
 @Slf4j
 @AllArgsConstructor
 public class UserService {
+    /**
+     * Значение importedIds для id, которых не было среди импортированных: присвоенные id положительны.
+     */
+    public static final long NOT_IMPORTED = 0;
 
     private final UserStorage userStorage;
     private final FeedService feedService;
     private final FilmStorage filmStorage;
+    private final PopularityIndex popularityIndex;
+    private final TrendingScores trendingScores;
+    private final RecommendationModel recommendationModel;
+    private final RecommendationUpdater recommendationUpdater;
+    private final LikedFilmBitmaps likedFilmBitmaps;
+    private final FriendGraph friendGraph;
+    private final FriendSuggestions friendSuggestions;
+    private final FriendPathIndex friendPathIndex;
+    private final ReviewStorage reviewStorage;
+    private final TopReviewsCache topReviewsCache;
+    @Value("${filmorate.friends.path.max-depth:6}")
+    private final int maxPathDepth;
+    private final FilmAggregateCache filmAggregateCache;
+    @Value("${filmorate.recommendations.limit:20}")
+    private final int recommendationsLimit;
 
 
     public Optional<User> getUserById(Long id) {
@@ -42,6 +84,139 @@ public class UserService {
 
     }
 
+    /**
+     * Импортирует порцию строк: сначала пользователей одним пакетом, затем ребра дружбы.
+     * importedIds - соответствие id из входных данных присвоенным id, общее для всего потока.
+     */
+    public List<ImportResult> importUsers(List<ImportRecord<UserImportLine>> records, LongLongHashMap importedIds) {
+        List<ImportResult> results = new ArrayList<>(records.size());
+        List<ImportRecord<UserImportLine>> userRecords = new ArrayList<>();
+        List<ImportRecord<UserImportLine>> edgeRecords = new ArrayList<>();
+        for (ImportRecord<UserImportLine> record : records) {
+            if (record.getValue() == null) {
+                results.add(ImportResult.failed(record.getLine(), "Пустая строка импорта"));
+            } else if (record.getValue().isFriendEdge()) {
+                edgeRecords.add(record);
+            } else {
+                userRecords.add(record);
+            }
+        }
+
+        importUserRecords(userRecords, importedIds, results);
+        importFriendRecords(edgeRecords, importedIds, results);
+        return results;
+    }
+
+    private void importUserRecords(List<ImportRecord<UserImportLine>> records, LongLongHashMap importedIds,
+                                   List<ImportResult> results) {
+        List<ImportRecord<UserImportLine>> valid = new ArrayList<>(records.size());
+        List<User> users = new ArrayList<>(records.size());
+        for (ImportRecord<UserImportLine> record : records) {
+            User user = record.getValue().toUser();
+            try {
+                if (user.getBirthday() == null) {
+                    throw new ValidateException("Не указана дата рождения пользователя");
+                }
+                validateNewUser(user);
+            } catch (ValidateException e) {
+                results.add(ImportResult.failed(record.getLine(), e.getMessage()));
+                continue;
+            }
+            if (user.getName() == null || user.getName().isEmpty()) {
+                user.setName(user.getLogin());
+            }
+            valid.add(record);
+            users.add(user);
+        }
+        if (users.isEmpty()) {
+            return;
+        }
+
+        try {
+            userStorage.createUsers(users);
+        } catch (DataAccessException e) {
+            log.error("Не удалось записать порцию импортируемых пользователей", e);
+            valid.forEach(record -> results.add(ImportResult.failed(record.getLine(), "Ошибка записи пользователя")));
+            return;
+        }
+        for (int i = 0; i < valid.size(); i++) {
+            Long sourceId = valid.get(i).getValue().getId();
+            if (sourceId != null) {
+                importedIds.put(sourceId, users.get(i).getId());
+            }
+            results.add(ImportResult.created(valid.get(i).getLine(), sourceId, users.get(i).getId()));
+        }
+    }
+
+    /**
+     * Ссылки на импортированных в этом потоке пользователей разрешаются по importedIds,
+     * ссылки на существующих проверяются одним запросом на порцию.
+     */
+    private void importFriendRecords(List<ImportRecord<UserImportLine>> records, LongLongHashMap importedIds,
+                                     List<ImportResult> results) {
+        Set<Long> existingIds = new HashSet<>();
+        for (ImportRecord<UserImportLine> record : records) {
+            UserImportLine line = record.getValue();
+            for (Long id : new Long[]{line.getUserId(), line.getFriendId()}) {
+                if (id != null) {
+                    existingIds.add(id);
+                }
+            }
+        }
+        existingIds = userStorage.findExistingIds(existingIds);
+
+        List<ImportRecord<UserImportLine>> valid = new ArrayList<>(records.size());
+        List<FriendEdge> edges = new ArrayList<>(records.size());
+        for (ImportRecord<UserImportLine> record : records) {
+            UserImportLine line = record.getValue();
+            if ((line.getUserId() == null) == (line.getUserSourceId() == null)
+                    || (line.getFriendId() == null) == (line.getFriendSourceId() == null)) {
+                results.add(ImportResult.failed(record.getLine(),
+                        "Каждый конец ребра задается ровно одним из полей: id или sourceId"));
+                continue;
+            }
+            Long userId = resolveImportedUser(line.getUserId(), line.getUserSourceId(), importedIds, existingIds);
+            Long friendId = resolveImportedUser(line.getFriendId(), line.getFriendSourceId(), importedIds, existingIds);
+            if (userId == null || friendId == null) {
+                results.add(ImportResult.failed(record.getLine(), "Не найден пользователь с указанным id"));
+            } else if (userId.equals(friendId)) {
+                results.add(ImportResult.failed(record.getLine(), "Пользователь не может добавить в друзья себя"));
+            } else {
+                valid.add(record);
+                edges.add(new FriendEdge(userId, friendId));
+            }
+        }
+        if (edges.isEmpty()) {
+            return;
+        }
+
+        List<FriendEdge> added;
+        try {
+            added = userStorage.addFriends(edges);
+        } catch (DataAccessException e) {
+            log.error("Не удалось записать порцию импортируемых друзей", e);
+            valid.forEach(record -> results.add(ImportResult.failed(record.getLine(), "Ошибка записи дружбы")));
+            return;
+        }
+        Set<Long> changedUsers = new HashSet<>();
+        for (FriendEdge edge : added) {
+            friendGraph.addFriend(edge.getUserId(), edge.getFriendId());
+            friendSuggestions.invalidate(edge.getUserId(), edge.getFriendId());
+            changedUsers.add(edge.getUserId());
+        }
+        feedService.friendsImported(changedUsers);
+        valid.forEach(record -> results.add(new ImportResult(record.getLine(), null, null, null)));
+    }
+
+    private static Long resolveImportedUser(Long id, Long sourceId, LongLongHashMap importedIds,
+                                            Set<Long> existingIds) {
+        if (sourceId != null) {
+            long importedId = importedIds.get(sourceId);
+            return importedId == NOT_IMPORTED ? null : importedId;
+        }
+        return existingIds.contains(id) ? id : null;
+    }
+
     public User updateUser(User user) {
         validateNewUser(user);
         return userStorage.updateUser(user);
@@ -52,6 +227,15 @@ public class UserService {
         return userStorage.getAllUsers();
     }
 
+    public List<User> getUsersPage(Long afterId, Integer limit) {
+        PageValidator.validate(afterId, limit, true);
+        return userStorage.getUsersPage(afterId, limit);
+    }
+
+    public void streamAllUsers(Consumer<User> consumer) {
+        userStorage.streamAllUsers(consumer);
+    }
+
     public void addFriend(Long userId, Long friendId) {
 
         User user = userStorage.getUserbyId(userId);
@@ -67,6 +251,8 @@ public class UserService {
         }
 
         userStorage.createFriend(user, userFriend);
+        friendGraph.addFriend(userId, friendId);
+        friendSuggestions.invalidate(userId, friendId);
         feedService.addFriend(userId, friendId);
     }
 
@@ -84,17 +270,51 @@ public class UserService {
             throw new NotFoundException("Не найден пользователь с указанным id");
         }
         userStorage.deleteFriend(userId, friendId);
+        friendGraph.removeFriend(userId, friendId);
+        friendSuggestions.invalidate(userId, friendId);
         feedService.deleteFriend(userId, friendId);
 
     }
 
     public List<User> getFriendList(Long userId) {
         validateUser(userId);
-        return userStorage.getFriendList(userId);
+        if (!friendGraph.isReady()) {
+            return userStorage.getFriendList(userId);
+        }
+        return userStorage.getUsersByIds(toList(friendGraph.getFriends(userId)));
     }
 
     public List<User> getMutualFriends(Long id, Long otherId) {
-        return userStorage.getMutualFriends(id, otherId);
+        if (!friendGraph.isReady()) {
+            return userStorage.getMutualFriends(id, otherId);
+        }
+        return userStorage.getUsersByIds(toList(friendGraph.getMutualFriends(id, otherId)));
+    }
+
+    public List<User> getFriendSuggestions(Long userId, Integer limit) {
+        validateUser(userId);
+        if (limit == null || limit <= 0 || limit > friendSuggestions.getMaxLimit()) {
+            log.error("Некорректное количество рекомендаций друзей: {}", limit);
+            throw new ValidateException("Количество рекомендаций должно быть от 1 до " + friendSuggestions.getMaxLimit());
+        }
+
+        return userStorage.getUsersByIds(friendSuggestions.suggest(userId, limit));
+    }
+
+    public FriendPath getFriendPath(Long userId, Long otherId, Integer maxDepth) {
+        validateUser(userId);
+        validateUser(otherId);
+        int depth = maxDepth == null ? maxPathDepth : maxDepth;
+        if (depth <= 0 || depth > maxPathDepth) {
+            log.error("Некорректная глубина поиска цепочки дружбы: {}", maxDepth);
+            throw new ValidateException("Глубина поиска должна быть от 1 до " + maxPathDepth);
+        }
+
+        List<Long> userIds = friendPathIndex.findPath(userId, otherId, depth);
+        if (userIds.isEmpty()) {
+            return new FriendPath(false, null, depth, new ArrayList<>());
+        }
+        return new FriendPath(true, userIds.size() - 1, depth, userStorage.getUsersByIds(userIds));
     }
 
     public void validateAddFriend(Long userId, Long friendId) throws ValidateException {
@@ -134,7 +354,12 @@ public class UserService {
 
     public List<Film> getRecommendations(Integer userId) {
         log.debug("Recommendations for films to watch from user with ID {}", userId);
-        return filmStorage.getRecommendations(userId);
+        if (!recommendationModel.isReady()) {
+            return filmStorage.getRecommendations(userId);
+        }
+
+        List<Long> filmIds = recommendationModel.recommend(userId, recommendationsLimit);
+        return filmAggregateCache.getAll(filmIds, filmStorage::getFilmsByIds);
     }
 
     public void validateUser(Long id) {
@@ -145,7 +370,26 @@ public class UserService {
     }
 
     public void deleteUser(Long id) {
+        for (Like like : filmStorage.removeLikesByUser(id)) {
+            popularityIndex.changeLikes(like.getFilmId(), -1);
+            trendingScores.removeLike(like.getFilmId(), like.getCreatedAt());
+            recommendationUpdater.likeRemoved(id, like.getFilmId());
+        }
+        likedFilmBitmaps.removeUser(id);
+        reviewStorage.removeVotesByUser(id);
         userStorage.deleteUser(id);
+        topReviewsCache.clear();
+        feedService.deleteUser(id);
+        friendGraph.removeUser(id);
+        friendSuggestions.invalidateAll();
+    }
+
+    private static List<Long> toList(long[] ids) {
+        List<Long> list = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
     }
 
 }
@@ -2,8 +2,10 @@ package ru.yandex.practicum.filmorate.storage;
 
 import ru.yandex.practicum.filmorate.model.Director;
 
+import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 public interface DirectorStorage {
     List<Director> findAll();
@@ -18,7 +20,13 @@ public interface DirectorStorage {
 
     void addFilm(LinkedHashSet<Director> directors, Long filmId);
 
+    List<Long> getFilmIdsByDirector(Long directorId);
+
     void deleteFilm(Long filmId);
 
     LinkedHashSet<Director>  getDirectorsByFilm(Long filmId);
+
+    Map<Long, LinkedHashSet<Director>> getDirectorsByFilmIds(Collection<Long> filmIds);
+
+    Map<Long, Director> findByIds(Collection<Long> ids);
 }
@@ -2,14 +2,38 @@ package ru.yandex.practicum.filmorate.storage;
 
 import ru.yandex.practicum.filmorate.model.Feed;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface FeedsStorage {
 
 
-    void save(Feed feed);
+    /**
+     * Сохраняет события пакетом. Идентификаторы событий должны быть уже назначены.
+     */
+    void saveAll(List<Feed> feeds);
 
-    List<Feed> getFeedByUserId(Long userId);
+    /**
+     * Наибольший сохраненный идентификатор события или 0, если событий нет.
+     */
+    Long getMaxEventId();
+
+    /**
+     * Передает события пользователя с event_id больше afterEventId по возрастанию event_id,
+     * не больше limit штук. null в afterEventId и limit снимает соответствующее ограничение.
+     */
+    void streamFeed(Long userId, Long afterEventId, Integer limit, Consumer<Feed> consumer);
+
+    /**
+     * Передает до perUser последних событий каждого из пользователей в произвольном порядке.
+     */
+    void streamLatestFeeds(Collection<Long> userIds, int perUser, Consumer<Feed> consumer);
+
+    /**
+     * Не больше limit последних событий всех переданных пользователей вместе, новые первыми.
+     */
+    List<Feed> findLatestFeeds(Collection<Long> userIds, int limit);
 
 
 }
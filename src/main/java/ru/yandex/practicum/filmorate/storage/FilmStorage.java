@@ -1,9 +1,14 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Like;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
 
@@ -19,19 +24,52 @@ public interface FilmStorage {
 
     Film createFilm(Film film);
 
+    /**
+     * Добавляет фильмы одним пакетом и проставляет им идентификаторы.
+     */
+    List<Film> createFilms(List<Film> films);
+
     Film updateFilm(Film film);
 
     List<Film> getAllFilms();
 
+    List<Film> getFilmsPage(Long afterId, Integer limit);
+
+    void streamAllFilms(Consumer<Film> consumer);
+
     Film getFilmById(Long filmId);
 
-    void addLike(Long filmId, Long userId);
+    List<Film> getFilmsByIds(List<Long> filmIds);
+
+    Map<Long, Integer> getLikeCounts();
+
+    /**
+     * Ставит лайк с переданным временем постановки в миллисекундах.
+     */
+    boolean addLike(Long filmId, Long userId, long createdAt);
 
     List<Film> getMostPopularFilms(Integer count, Integer genreId, Integer year);
 
-    List<Film> getCommonFilms(Integer userId, Integer friendId);
+    List<Film> getCommonFilms(List<Long> userIds);
+
+    boolean removeLike(Long filmId, Long userId);
+
+    List<Like> addLikes(List<Like> likes);
+
+    List<Like> removeLikes(List<Like> likes);
+
+    /**
+     * Те из переданных идентификаторов, для которых есть фильм.
+     */
+    Set<Long> findExistingIds(Collection<Long> filmIds);
+
+    Long getLikeTimestamp(Long filmId, Long userId);
+
+    void streamLikes(Consumer<Like> consumer);
+
+    List<Like> removeLikesByUser(Long userId);
 
-    void removeLike(Long filmId, Long userId);
+    int reconcileLikeCounts();
 
     List<Film> findFilmsByDirector(Long id, Optional<String> sortBy);
 
@@ -3,7 +3,9 @@ package ru.yandex.practicum.filmorate.storage;
 import ru.yandex.practicum.filmorate.model.Genre;
 
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface GenreStorage {
 
@@ -14,4 +16,6 @@ public interface GenreStorage {
     Long getGenreIdByName(String genreName);
 
     Long addGenre(Genre genre);
+
+    Map<Long, List<Genre>> getGenresByFilmIds(Collection<Long> filmIds);
 }
\ No newline at end of file
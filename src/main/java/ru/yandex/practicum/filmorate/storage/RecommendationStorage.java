@@ -0,0 +1,29 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import ru.yandex.practicum.filmorate.model.Recommendation;
+
+import java.util.List;
+import java.util.Set;
+
+public interface RecommendationStorage {
+
+    /**
+     * Возвращает идентификатор последнего незавершенного запуска или null.
+     */
+    Long findUnfinishedRun();
+
+    Long startRun();
+
+    Set<Long> getCompletedRanges(Long runId);
+
+    /**
+     * Заменяет рекомендации пользователей диапазона [rangeStart, rangeEnd) и отмечает диапазон
+     * обработанным в одной транзакции.
+     */
+    void saveRange(Long runId, Long rangeStart, Long rangeEnd, List<Recommendation> recommendations);
+
+    /**
+     * Завершает запуск и удаляет рекомендации пользователей с идентификатором от rangeEnd и выше.
+     */
+    void finishRun(Long runId, Long rangeEnd);
+}
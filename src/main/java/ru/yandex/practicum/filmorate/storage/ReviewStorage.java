@@ -7,7 +7,7 @@ import java.util.List;
 public interface ReviewStorage {
     Review findById(Long id);
 
-    List<Review> findAll(Long aLong, Integer integer);
+    List<Review> findAll(Long filmId, Integer afterUseful, Long afterId, Integer count);
 
     Review create(Review review);
 
@@ -22,4 +22,6 @@ public interface ReviewStorage {
     void addDislike(Long reviewId, Long userId);
 
     void deleteDislike(Long reviewId, Long userId);
+
+    void removeVotesByUser(Long userId);
 }
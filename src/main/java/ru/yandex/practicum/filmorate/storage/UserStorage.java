@@ -1,26 +1,57 @@
 package ru.yandex.practicum.filmorate.storage;
 
 
+import ru.yandex.practicum.filmorate.model.FriendEdge;
 import ru.yandex.practicum.filmorate.model.User;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public interface UserStorage {
 
     User createUser(User user);
 
+    /**
+     * Добавляет пользователей одним пакетом и проставляет им идентификаторы.
+     */
+    List<User> createUsers(List<User> users);
+
     User updateUser(User user);
 
     List<User> getAllUsers();
 
+    List<User> getUsersPage(Long afterId, Integer limit);
+
+    void streamAllUsers(Consumer<User> consumer);
+
     User getUserbyId(Long id);
 
+    List<User> getUsersByIds(List<Long> ids);
+
+    /**
+     * Те из переданных идентификаторов, для которых есть пользователь.
+     */
+    Set<Long> findExistingIds(Collection<Long> userIds);
+
+    /**
+     * Передает все пары (user_id, friend_id) таблицы дружбы.
+     */
+    void streamFriendEdges(BiConsumer<Long, Long> consumer);
+
     List<User> getFriendList(Long userId);
 
     List<User> getMutualFriends(Long id, Long otherId);
 
     void createFriend(User user, User friend);
 
+    /**
+     * Добавляет ребра дружбы одним пакетом, возвращает те, которых еще не было.
+     */
+    List<FriendEdge> addFriends(List<FriendEdge> edges);
+
     void deleteFriend(Long id, Long friendId);
 
     void deleteUser(Long id);
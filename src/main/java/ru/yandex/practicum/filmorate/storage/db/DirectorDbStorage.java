@@ -5,21 +5,21 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Primary;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.storage.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.memory.FilmAggregateCache;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Objects;
-import java.util.StringJoiner;
+import java.util.*;
 
 @Component
 @Slf4j
@@ -29,6 +29,8 @@ public class DirectorDbStorage implements DirectorStorage {
     public static final String DIRECTORS = "directors";
     public static final String FILMS_DIRECTOR = "films_director";
     private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final FilmAggregateCache filmAggregateCache;
 
 
     @Override
@@ -81,6 +83,7 @@ public class DirectorDbStorage implements DirectorStorage {
 
         String sqlQuery = "UPDATE " + DIRECTORS + " SET name = ? WHERE director_id = ?";
         jdbcTemplate.update(sqlQuery, director.getName(), director.getId());
+        filmAggregateCache.invalidateAll(getFilmIdsByDirector(director.getId()));
 
         return director;
     }
@@ -88,10 +91,13 @@ public class DirectorDbStorage implements DirectorStorage {
     @Override
     public String delete(Long directorId) {
         log.info("Удаление режиссера с id = {}", directorId);
+        List<Long> filmIds = getFilmIdsByDirector(directorId);
         String sqlQuery = "DELETE FROM " + FILMS_DIRECTOR + " WHERE director_id = ?; " +
                 "DELETE FROM " + DIRECTORS + " WHERE director_id = " + directorId;
 
-        return jdbcTemplate.update(sqlQuery, directorId) > 0 ? "Режиссер удален" : "Ошибка при удалении";
+        boolean deleted = jdbcTemplate.update(sqlQuery, directorId) > 0;
+        filmAggregateCache.invalidateAll(filmIds);
+        return deleted ? "Режиссер удален" : "Ошибка при удалении";
     }
 
     @Override
@@ -107,6 +113,13 @@ public class DirectorDbStorage implements DirectorStorage {
         jdbcTemplate.update(sqlQuery.substring(0, sqlQuery.length() - 1));
     }
 
+    @Override
+    public List<Long> getFilmIdsByDirector(Long directorId) {
+        String sqlQuery = "SELECT film_id FROM " + FILMS_DIRECTOR + " WHERE director_id = ?";
+
+        return jdbcTemplate.queryForList(sqlQuery, Long.class, directorId);
+    }
+
     @Override
     public void deleteFilm(Long filmId) {
         String sqlQuery = "DELETE FROM " + FILMS_DIRECTOR + " WHERE film_id = ?";
@@ -124,6 +137,41 @@ public class DirectorDbStorage implements DirectorStorage {
         return new LinkedHashSet<>(jdbcTemplate.query(sqlQuery, this::mapRowToDirector, filmId));
     }
 
+    @Override
+    public Map<Long, LinkedHashSet<Director>> getDirectorsByFilmIds(Collection<Long> filmIds) {
+        Map<Long, LinkedHashSet<Director>> directorsByFilm = new HashMap<>();
+        if (filmIds.isEmpty()) {
+            return directorsByFilm;
+        }
+
+        log.info("Получение режиссеров для {} фильмов", filmIds.size());
+        String sqlQuery = "SELECT fd.film_id, d.* FROM " + FILMS_DIRECTOR + " AS fd " +
+                "JOIN " + DIRECTORS + " AS d ON d.director_id = fd.director_id " +
+                "WHERE fd.film_id IN (:ids)";
+
+        namedParameterJdbcTemplate.query(sqlQuery, new MapSqlParameterSource("ids", filmIds), rs -> {
+            directorsByFilm.computeIfAbsent(rs.getLong("film_id"), id -> new LinkedHashSet<>())
+                    .add(mapRowToDirector(rs, 0));
+        });
+
+        return directorsByFilm;
+    }
+
+    @Override
+    public Map<Long, Director> findByIds(Collection<Long> ids) {
+        Map<Long, Director> directors = new HashMap<>();
+        if (ids.isEmpty()) {
+            return directors;
+        }
+
+        namedParameterJdbcTemplate.query("SELECT * FROM " + DIRECTORS + " WHERE director_id IN (:ids)",
+                new MapSqlParameterSource("ids", ids), rs -> {
+                    Director director = mapRowToDirector(rs, 0);
+                    directors.put(director.getId(), director);
+                });
+        return directors;
+    }
+
     private Director mapRowToDirector(ResultSet resultSet, int rowNum) throws SQLException {
         return Director
                 .builder()
@@ -2,18 +2,25 @@ package ru.yandex.practicum.filmorate.storage.db;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.model.Feed;
 import ru.yandex.practicum.filmorate.storage.FeedsStorage;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 
 @Component
 @Slf4j
@@ -22,48 +29,100 @@ import java.util.Map;
 public class FeedsDbStorage implements FeedsStorage {
     public static final String FEED = "feed";
     private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    @Value("${filmorate.stream.fetch-size:500}")
+    private final int streamFetchSize;
 
 
     @Override
-    public void save(Feed feed) {
-        Map<String, Object> values = new HashMap<>();
-        values.put("user_id", feed.getUserId());
-        values.put("entity_id", feed.getEntityId());
-        values.put("event_type", feed.getEventType());
-        values.put("operation", feed.getOperation());
-        values.put("timestamp", feed.getTimestamp());
-
-        SimpleJdbcInsert simpleJdbcInsert = new SimpleJdbcInsert(jdbcTemplate)
-                .withTableName(FEED)
-                .usingGeneratedKeyColumns("event_id");
-
-        simpleJdbcInsert.executeAndReturnKey(values).longValue();
-
+    @Transactional
+    public void saveAll(List<Feed> feeds) {
+        jdbcTemplate.batchUpdate("INSERT INTO " + FEED +
+                        " (event_id, user_id, entity_id, event_type, operation, timestamp) VALUES (?, ?, ?, ?, ?, ?)",
+                feeds, feeds.size(), (ps, feed) -> {
+                    ps.setLong(1, feed.getEventId());
+                    ps.setLong(2, feed.getUserId());
+                    ps.setLong(3, feed.getEntityId());
+                    ps.setString(4, feed.getEventType());
+                    ps.setString(5, feed.getOperation());
+                    ps.setLong(6, feed.getTimestamp());
+                });
     }
 
     @Override
-    public List<Feed> getFeedByUserId(Long userId) {
-        SqlRowSet feedRows = jdbcTemplate.queryForRowSet("select * from " + FEED + " where user_id = ?", userId);
-        ArrayList<Feed> feeds = new ArrayList<Feed>();
-        while (feedRows.next()) {
-
-            Feed feed = new Feed();
-            feed.setEventId(feedRows.getLong("event_id"));
-            feed.setUserId(feedRows.getLong("user_id"));
-            feed.setEntityId(feedRows.getLong("entity_id"));
-            feed.setOperation(feedRows.getString("operation"));
-            feed.setEventType(feedRows.getString("event_type"));
-            feed.setTimestamp(feedRows.getLong("timestamp"));
-
-            feeds.add(feed);
-            log.info("Найдена лента событий пользователя: {}", userId);
+    public Long getMaxEventId() {
+        return jdbcTemplate.queryForObject("SELECT COALESCE(MAX(event_id), 0) FROM " + FEED, Long.class);
+    }
 
+    /**
+     * Читает события пользователя по возрастанию event_id однонаправленным курсором
+     * по индексу (user_id, event_id), не собирая их в список.
+     */
+    @Override
+    public void streamFeed(Long userId, Long afterEventId, Integer limit, Consumer<Feed> consumer) {
+        String sql = "SELECT * FROM " + FEED + " WHERE user_id = ? AND event_id > ? ORDER BY event_id"
+                + (limit == null ? "" : " LIMIT ?");
+
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setLong(1, userId);
+            ps.setLong(2, afterEventId == null ? 0 : afterEventId);
+            if (limit != null) {
+                ps.setInt(3, limit);
+            }
+            ps.setFetchSize(streamFetchSize);
+            return ps;
+        }, (RowCallbackHandler) rs -> consumer.accept(mapRowToFeed(rs)));
+    }
 
+    /**
+     * Последние perUser событий каждого из пользователей одним запросом на порцию идентификаторов.
+     */
+    @Override
+    public void streamLatestFeeds(Collection<Long> userIds, int perUser, Consumer<Feed> consumer) {
+        String sql = "SELECT * FROM (SELECT f.*, ROW_NUMBER() OVER (PARTITION BY user_id ORDER BY event_id DESC) AS rn"
+                + " FROM " + FEED + " f WHERE user_id IN (:ids)) WHERE rn <= :perUser";
+        List<Long> ids = new ArrayList<>(userIds);
+        for (int from = 0; from < ids.size(); from += streamFetchSize) {
+            MapSqlParameterSource parameters = new MapSqlParameterSource()
+                    .addValue("ids", ids.subList(from, Math.min(ids.size(), from + streamFetchSize)))
+                    .addValue("perUser", perUser);
+            namedParameterJdbcTemplate.query(sql, parameters, (RowCallbackHandler) rs -> consumer.accept(mapRowToFeed(rs)));
         }
-
-        return feeds;
-
     }
 
+    /**
+     * Последние события по индексу (user_id, event_id) запросом с LIMIT на каждую порцию
+     * идентификаторов. Из ответов порций остаются limit самых новых.
+     */
+    @Override
+    public List<Feed> findLatestFeeds(Collection<Long> userIds, int limit) {
+        String sql = "SELECT * FROM " + FEED + " WHERE user_id IN (:ids) ORDER BY event_id DESC LIMIT :limit";
+        List<Long> ids = new ArrayList<>(userIds);
+        List<Feed> latest = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += streamFetchSize) {
+            MapSqlParameterSource parameters = new MapSqlParameterSource()
+                    .addValue("ids", ids.subList(from, Math.min(ids.size(), from + streamFetchSize)))
+                    .addValue("limit", limit);
+            latest.addAll(namedParameterJdbcTemplate.query(sql, parameters, (rs, rowNum) -> mapRowToFeed(rs)));
+            if (latest.size() > limit) {
+                latest.sort(Comparator.comparing(Feed::getEventId).reversed());
+                latest.subList(limit, latest.size()).clear();
+            }
+        }
+        latest.sort(Comparator.comparing(Feed::getEventId).reversed());
+        return latest;
+    }
 
+    private Feed mapRowToFeed(ResultSet rs) throws SQLException {
+        return Feed.builder()
+                .eventId(rs.getLong("event_id"))
+                .userId(rs.getLong("user_id"))
+                .entityId(rs.getLong("entity_id"))
+                .eventType(rs.getString("event_type"))
+                .operation(rs.getString("operation"))
+                .timestamp(rs.getLong("timestamp"))
+                .build();
+    }
 }
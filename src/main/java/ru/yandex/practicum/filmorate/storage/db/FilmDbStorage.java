@@ -2,24 +2,34 @@ package ru.yandex.practicum.filmorate.storage.db;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
-import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
-import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.Like;
 import ru.yandex.practicum.filmorate.storage.FilmStorage;
-import ru.yandex.practicum.filmorate.storage.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.memory.FilmAggregateCache;
 
-import java.sql.Date;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.time.LocalDate;
+import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.*;
+import java.util.function.Consumer;
 
 @Component
 @Slf4j
@@ -32,10 +42,19 @@ public class FilmDbStorage implements FilmStorage {
     public static final String MPA_RATING = "mpa_rating";
     public static final String GENRES = "genres";
     public static final String LIKES = "likes";
+    private static final String INSERT_LIKE = "INSERT INTO " + LIKES + " (film_id, user_id, created_at) " +
+            "SELECT CAST(? AS INTEGER), CAST(? AS INTEGER), CAST(? AS TIMESTAMP) " +
+            "WHERE NOT EXISTS (SELECT 1 FROM " + LIKES + " WHERE film_id = ? AND user_id = ?)";
     private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
     private final DirectorDbStorage directorDbStorage;
-    private final MpaDbStorage mpaDbStorage;
-    private final GenreStorage genreStorage;
+    private final FilmHydrator filmHydrator;
+    private final FilmAggregateCache filmAggregateCache;
+    private final TransactionTemplate transactionTemplate;
+    @Value("${filmorate.stream.fetch-size:500}")
+    private final int streamFetchSize;
+    @Value("${filmorate.likes.batch.statement-size:1000}")
+    private final int likeBatchSize;
 
 
     @Override
@@ -46,6 +65,7 @@ public class FilmDbStorage implements FilmStorage {
         values.put("release_date", film.getReleaseDate());
         values.put("duration", film.getDuration());
         values.put(MPA_RATING + "_id", film.getMpa().getId());
+        values.put("like_count", 0);
 
         SimpleJdbcInsert simpleJdbcInsert = new SimpleJdbcInsert(jdbcTemplate)
                 .withTableName(FILMS)
@@ -62,6 +82,56 @@ public class FilmDbStorage implements FilmStorage {
         return getFilmById(filmId);
     }
 
+    /**
+     * Пакетная вставка фильмов без повторного чтения: идентификаторы берутся из сгенерированных
+     * ключей и проставляются переданным объектам. Жанры и режиссеры должны быть без повторов.
+     */
+    @Override
+    @Transactional
+    public List<Film> createFilms(List<Film> films) {
+        if (films.isEmpty()) {
+            return films;
+        }
+        String sql = "INSERT INTO " + FILMS + " (name, description, release_date, duration, " + MPA_RATING + "_id, " +
+                "like_count) VALUES (?, ?, ?, ?, ?, 0)";
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                for (Film film : films) {
+                    ps.setString(1, film.getName());
+                    ps.setString(2, film.getDescription());
+                    ps.setObject(3, film.getReleaseDate());
+                    ps.setInt(4, film.getDuration());
+                    ps.setInt(5, film.getMpa().getId());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+
+                int index = 0;
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    while (keys.next() && index < films.size()) {
+                        films.get(index++).setId(keys.getLong(1));
+                    }
+                }
+                if (index != films.size()) {
+                    throw new IllegalStateException("Получено " + index + " ключей для " + films.size() + " фильмов");
+                }
+            }
+            return null;
+        });
+
+        List<Object[]> genreRows = new ArrayList<>();
+        List<Object[]> directorRows = new ArrayList<>();
+        for (Film film : films) {
+            film.getGenres().forEach(genre -> genreRows.add(new Object[]{film.getId(), genre.getId()}));
+            film.getDirectors().forEach(director -> directorRows.add(new Object[]{film.getId(), director.getId()}));
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO " + GENRE_FILM + " (film_id, genre_id) VALUES (?, ?)", genreRows);
+        jdbcTemplate.batchUpdate("INSERT INTO " + DirectorDbStorage.FILMS_DIRECTOR + " (film_id, director_id) " +
+                "VALUES (?, ?)", directorRows);
+        log.info("Добавлено фильмов: {}", films.size());
+        return films;
+    }
+
     private void addGenres(Long filmId, List<Genre> genres) {
 
         List<Genre> currentFilmGenres = getGenresForFilm(filmId);
@@ -121,6 +191,7 @@ public class FilmDbStorage implements FilmStorage {
             directorDbStorage.addFilm(film.getDirectors(), film.getId());
         }
 
+        filmAggregateCache.invalidate(film.getId());
         return getFilmById(film.getId());
     }
 
@@ -131,64 +202,65 @@ public class FilmDbStorage implements FilmStorage {
 
     @Override
     public List<Film> getAllFilms() {
+        List<Film> films = jdbcTemplate.query(FilmHydrator.FILM_SELECT, filmHydrator::mapRowToFilm);
 
-        SqlRowSet filmRows = jdbcTemplate.queryForRowSet("select f.*, mr.name mpa_name, mr.description mpa_description" +
-                " from " + FILMS + " as f " +
-                "join " + MPA_RATING + " as mr  on mr.mpa_rating_id  = f.mpa_rating_id ");
-
-        ArrayList<Film> films = new ArrayList<>();
-        while (filmRows.next()) {
-            Mpa mpa = new Mpa();
-            Film film = new Film();
-            film.setId(filmRows.getLong("film_id"));
-            film.setName(filmRows.getString("name"));
-            film.setDescription(filmRows.getString("description"));
-            Date releaseDateField = filmRows.getDate("release_date");
-            film.setReleaseDate(releaseDateField != null ? releaseDateField.toLocalDate() : null);
-            film.setDuration(filmRows.getInt("duration"));
-            film.setGenres(getGenresForFilm(film.getId()));
-            film.setDirectors(directorDbStorage.getDirectorsByFilm(film.getId()));
-            mpa.setId(filmRows.getInt(MPA_RATING + "_id"));
-            mpa.setName(filmRows.getString("MPA_NAME"));
-            mpa.setDescription(filmRows.getString("MPA_DESCRIPTION"));
-            film.setMpa(mpa);
-            films.add(film);
+        return filmHydrator.hydrate(films);
+    }
 
-        }
+    @Override
+    public List<Film> getFilmsPage(Long afterId, Integer limit) {
+        List<Film> films = jdbcTemplate.query(FilmHydrator.FILM_SELECT +
+                        "WHERE f.film_id > ? ORDER BY f.film_id LIMIT ?",
+                filmHydrator::mapRowToFilm, afterId == null ? 0 : afterId, limit);
 
-        return films;
+        return filmHydrator.hydrate(films);
+    }
+
+    /**
+     * Читает фильмы порциями по streamFetchSize по возрастанию id, продолжая с последнего id
+     * предыдущей порции. Соединение занято только на время чтения и дозаполнения порции,
+     * а не на все время передачи фильмов потребителю.
+     */
+    @Override
+    public void streamAllFilms(Consumer<Film> consumer) {
+        long afterId = 0;
+        List<Film> chunk;
+        do {
+            chunk = getFilmsPage(afterId, streamFetchSize);
+            chunk.forEach(consumer);
+            if (!chunk.isEmpty()) {
+                afterId = chunk.get(chunk.size() - 1).getId();
+            }
+        } while (chunk.size() == streamFetchSize);
     }
 
     @Override
     public Film getFilmById(Long filmId) {
-        SqlRowSet filmRows = jdbcTemplate.queryForRowSet("select f.*, mr.name mpa_name, mr.description mpa_description " +
-                "from " + FILMS + " as f" +
-                "  join " + MPA_RATING + " as mr " +
-                " on mr." + MPA_RATING + "_id  = f.mpa_rating_id where f.film_id = ?", filmId);
-        Mpa mpa = new Mpa();
-        if (filmRows.next()) {
-
-            Film film = new Film();
-            film.setId(filmRows.getLong("film_id"));
-            film.setName(filmRows.getString("name"));
-            film.setDescription(filmRows.getString("description"));
-            Date releaseDateField = filmRows.getDate("release_date");
-            film.setReleaseDate(releaseDateField != null ? releaseDateField.toLocalDate() : null);
-            film.setDuration(filmRows.getInt("duration"));
-            film.setGenres(getGenresForFilm(film.getId()));
-            mpa.setId(filmRows.getInt(MPA_RATING + "_id"));
-            mpa.setName(filmRows.getString("MPA_NAME"));
-            mpa.setDescription(filmRows.getString("MPA_DESCRIPTION"));
-            film.setDirectors(directorDbStorage.getDirectorsByFilm(filmId));
-            film.setMpa(mpa);
-
-            log.info("Найден фильм: {} {}", film.getId(), film.getName());
-
-            return film;
-        } else {
-            log.info("Пользователь с идентификатором {} не найден.", filmId);
+        List<Film> films = filmHydrator.loadFilms(List.of(filmId));
+
+        if (films.isEmpty()) {
+            log.info("Фильм с идентификатором {} не найден.", filmId);
             return null;
         }
+
+        Film film = films.get(0);
+        log.info("Найден фильм: {} {}", film.getId(), film.getName());
+
+        return film;
+    }
+
+    @Override
+    public List<Film> getFilmsByIds(List<Long> filmIds) {
+        return filmHydrator.loadFilms(filmIds);
+    }
+
+    @Override
+    public Map<Long, Integer> getLikeCounts() {
+        Map<Long, Integer> likeCounts = new HashMap<>();
+        jdbcTemplate.query("SELECT film_id, like_count FROM " + FILMS,
+                (RowCallbackHandler) rs -> likeCounts.put(rs.getLong("film_id"), rs.getInt("like_count")));
+
+        return likeCounts;
     }
 
     public List<Genre> getGenresForFilm(Long filmId) {
@@ -210,99 +282,272 @@ public class FilmDbStorage implements FilmStorage {
 
     }
 
+    /**
+     * Повторный лайк не вставляется: обычно его отсекает NOT EXISTS, а при одновременной
+     * постановке того же лайка - уникальный индекс likes_film_user_idx.
+     */
     @Override
-    public void addLike(Long filmId, Long userId) {
-
-        Map<String, Object> values = new HashMap<>();
-        values.put("film_id", filmId);
-        values.put("user_id", userId);
-
+    @Transactional
+    public boolean addLike(Long filmId, Long userId, long createdAt) {
+        if (!insertLike(new Like(userId, filmId, createdAt))) {
+            return false;
+        }
+        jdbcTemplate.update("UPDATE " + FILMS + " SET like_count = like_count + 1 WHERE film_id = ?", filmId);
+        return true;
+    }
 
-        SimpleJdbcInsert simpleJdbcInsert = new SimpleJdbcInsert(jdbcTemplate)
-                .withTableName(LIKES);
-        simpleJdbcInsert.execute(values);
+    private boolean insertLike(Like like) {
+        try {
+            return jdbcTemplate.update(INSERT_LIKE, like.getFilmId(), like.getUserId(),
+                    new Timestamp(like.getCreatedAt()), like.getFilmId(), like.getUserId()) > 0;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
     }
 
     @Override
     public List<Film> getMostPopularFilms(Integer limit, Integer genreId, Integer year) {
         SqlRowSet likesRows;
-        ArrayList<Film> mostPopularFilms = new ArrayList<>();
+        List<Long> mostPopularFilmIds = new ArrayList<>();
 
         if (genreId == null && year == null) {
             String sql = "SELECT f.film_id " +
                     "FROM " + FILMS + " AS f " +
-                    "LEFT OUTER JOIN " + LIKES + " AS l ON l.film_id = f.film_id " +
-                    "GROUP BY f.film_id " +
-                    "ORDER BY COUNT(l.film_id) DESC " +
+                    "ORDER BY f.like_count DESC, f.film_id " +
                     "LIMIT ?";
             likesRows = jdbcTemplate.queryForRowSet(sql, limit);
 
         } else if (genreId != null && year != null) {
             String sql = "SELECT f.film_id " +
                     "FROM " + FILMS + " AS f " +
-                    "LEFT OUTER JOIN " + LIKES + " AS l ON l.film_id = f.film_id " +
-                    "LEFT JOIN  " + GENRE_FILM + " AS gf ON f.film_id = gf.film_id " +
-                    "WHERE  gf.genre_id = ? AND year(f.release_date) = ? " +
-                    "limit ?";
+                    "JOIN " + GENRE_FILM + " AS gf ON f.film_id = gf.film_id " +
+                    "WHERE gf.genre_id = ? AND year(f.release_date) = ? " +
+                    "ORDER BY f.like_count DESC, f.film_id " +
+                    "LIMIT ?";
             likesRows = jdbcTemplate.queryForRowSet(sql, genreId, year, limit);
 
         } else if (year == null) {
             String sql = "SELECT f.film_id " +
                     "FROM " + FILMS + " AS f " +
-                    "LEFT OUTER JOIN " + LIKES + " AS l ON l.film_id = f.film_id " +
-                    "LEFT JOIN " + GENRE_FILM + " AS gf ON f.film_id = gf.film_id " +
+                    "JOIN " + GENRE_FILM + " AS gf ON f.film_id = gf.film_id " +
                     "WHERE gf.genre_id = ? " +
-                    "GROUP BY f.film_id " +
-                    "limit ?";
+                    "ORDER BY f.like_count DESC, f.film_id " +
+                    "LIMIT ?";
             likesRows = jdbcTemplate.queryForRowSet(sql, genreId, limit);
 
         } else {
             String sql = "SELECT f.film_id " +
                     "FROM " + FILMS + " AS f " +
-                    "LEFT OUTER JOIN " + LIKES + " AS l ON l.film_id = f.film_id " +
-                    "LEFT JOIN " + GENRE_FILM + " AS gf ON f.film_id = gf.film_id " +
                     "WHERE year(f.release_date) = ? " +
-                    "GROUP BY f.film_id " +
-                    "limit ?";
+                    "ORDER BY f.like_count DESC, f.film_id " +
+                    "LIMIT ?";
             likesRows = jdbcTemplate.queryForRowSet(sql, year, limit);
         }
         while (likesRows.next()) {
-            Long filmId = likesRows.getLong("film_id");
-            mostPopularFilms.add(getFilmById(filmId));
+            mostPopularFilmIds.add(likesRows.getLong("film_id"));
         }
-        return mostPopularFilms;
+        return filmHydrator.loadFilms(mostPopularFilmIds);
     }
 
     @Override
-    public List<Film> getCommonFilms(Integer userId, Integer friendId) {
-        SqlRowSet likesRows;
-        ArrayList<Film> commonFilms = new ArrayList<>();
+    public List<Film> getCommonFilms(List<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return new ArrayList<>();
+        }
 
         String sql = "SELECT f.film_id " +
                 "FROM " + FILMS + " AS f " +
-                "LEFT OUTER JOIN " + LIKES + " AS l ON f.film_id = l.film_id " +
-                "WHERE f.film_id IN ( " +
-                "   SELECT f.film_id " +
-                "   FROM " + FILMS + " AS f " +
-                "   LEFT JOIN " + LIKES + " AS l ON f.film_id = l.film_id " +
-                "   WHERE user_id = ? " +
-                ") " +
-                "AND user_id = ? " +
-                "GROUP BY f.film_id " +
-                "ORDER BY count(DISTINCT user_id) DESC ";
-        likesRows = jdbcTemplate.queryForRowSet(sql, userId, friendId);
+                "JOIN " + LIKES + " AS l ON f.film_id = l.film_id " +
+                "WHERE l.user_id IN (" + String.join(", ", Collections.nCopies(userIds.size(), "?")) + ") " +
+                "GROUP BY f.film_id, f.like_count " +
+                "HAVING COUNT(DISTINCT l.user_id) = ? " +
+                "ORDER BY f.like_count DESC, f.film_id";
+        List<Object> params = new ArrayList<>(userIds);
+        params.add(userIds.size());
+
+        List<Long> commonFilmIds = jdbcTemplate.query(sql, this::mapRowToFilmId, params.toArray());
+        return filmHydrator.loadFilms(commonFilmIds);
+    }
 
-        while (likesRows.next()) {
-            Long filmId = likesRows.getLong("film_id");
-            commonFilms.add(getFilmById(filmId));
+    @Override
+    @Transactional
+    public boolean removeLike(Long filmId, Long userId) {
+        String sql = "DELETE FROM " + LIKES + " WHERE film_id = ? AND user_id = ? ";
+        int removed = jdbcTemplate.update(sql, filmId, userId);
+
+        if (removed > 0) {
+            jdbcTemplate.update("UPDATE " + FILMS + " SET like_count = like_count - ? WHERE film_id = ?",
+                    removed, filmId);
         }
-        return commonFilms;
+        return removed > 0;
     }
 
+    /**
+     * Добавляет лайки одним пакетом и увеличивает счетчики фильмов. Время постановки берется
+     * из createdAt. Возвращает лайки, которых еще не было. Вызывается внутри транзакции.
+     */
     @Override
-    public void removeLike(Long filmId, Long userId) {
-        String sql = "DELETE FROM " + LIKES + " WHERE film_id = ? AND user_id = ? ";
-        jdbcTemplate.update(sql, filmId, userId);
+    public List<Like> addLikes(List<Like> likes) {
+        if (likes.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Like> added;
+        try {
+            added = savepoint().execute(status -> changedLikes(likes,
+                    jdbcTemplate.batchUpdate(INSERT_LIKE, likes, likeBatchSize, (ps, like) -> {
+                        ps.setLong(1, like.getFilmId());
+                        ps.setLong(2, like.getUserId());
+                        ps.setTimestamp(3, new Timestamp(like.getCreatedAt()));
+                        ps.setLong(4, like.getFilmId());
+                        ps.setLong(5, like.getUserId());
+                    })));
+        } catch (DuplicateKeyException e) {
+            // тот же лайк одновременно поставили в другой транзакции: пакет откатан до точки
+            // сохранения, лайки вставляются по одному, повторные пропускаются
+            log.debug("Пакет лайков пересекся с параллельной вставкой, лайки добавляются по одному");
+            added = new ArrayList<>();
+            for (Like like : likes) {
+                if (insertLike(like)) {
+                    added.add(new Like(like.getUserId(), like.getFilmId(), like.getCreatedAt()));
+                }
+            }
+        }
+        changeLikeCounts(added, 1);
+        return added;
+    }
+
+    private TransactionTemplate savepoint() {
+        TransactionTemplate savepoint = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        savepoint.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+        return savepoint;
+    }
+
+    /**
+     * Удаляет лайки одним пакетом и уменьшает счетчики фильмов. Возвращает удаленные лайки
+     * со временем их постановки. Вызывается внутри транзакции.
+     */
+    @Override
+    public List<Like> removeLikes(List<Like> likes) {
+        if (likes.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Like, Long> createdAt = new HashMap<>();
+        for (int from = 0; from < likes.size(); from += likeBatchSize) {
+            List<Like> chunk = likes.subList(from, Math.min(likes.size(), from + likeBatchSize));
+            String sql = "SELECT user_id, film_id, created_at FROM " + LIKES + " WHERE (film_id, user_id) IN (" +
+                    String.join(", ", Collections.nCopies(chunk.size(), "(?, ?)")) + ")";
+            Object[] params = new Object[chunk.size() * 2];
+            for (int i = 0; i < chunk.size(); i++) {
+                params[2 * i] = chunk.get(i).getFilmId();
+                params[2 * i + 1] = chunk.get(i).getUserId();
+            }
+            jdbcTemplate.query(sql, (RowCallbackHandler) rs -> createdAt.put(
+                    new Like(rs.getLong("user_id"), rs.getLong("film_id"), null),
+                    rs.getTimestamp("created_at").getTime()), params);
+        }
+
+        int[][] counts = jdbcTemplate.batchUpdate("DELETE FROM " + LIKES + " WHERE film_id = ? AND user_id = ?",
+                likes, likeBatchSize, (ps, like) -> {
+                    ps.setLong(1, like.getFilmId());
+                    ps.setLong(2, like.getUserId());
+                });
+
+        List<Like> removed = changedLikes(likes, counts);
+        for (Like like : removed) {
+            like.setCreatedAt(createdAt.get(new Like(like.getUserId(), like.getFilmId(), null)));
+        }
+        changeLikeCounts(removed, -1);
+        return removed;
+    }
+
+    private static List<Like> changedLikes(List<Like> likes, int[][] counts) {
+        List<Like> changed = new ArrayList<>();
+        int index = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                if (count > 0) {
+                    Like like = likes.get(index);
+                    changed.add(new Like(like.getUserId(), like.getFilmId(), like.getCreatedAt()));
+                }
+                index++;
+            }
+        }
+        return changed;
+    }
+
+    private void changeLikeCounts(List<Like> likes, int sign) {
+        Map<Long, Integer> deltas = new HashMap<>();
+        for (Like like : likes) {
+            deltas.merge(like.getFilmId(), sign, Integer::sum);
+        }
+        jdbcTemplate.batchUpdate("UPDATE " + FILMS + " SET like_count = like_count + ? WHERE film_id = ?",
+                new ArrayList<>(deltas.entrySet()), likeBatchSize, (ps, delta) -> {
+                    ps.setInt(1, delta.getValue());
+                    ps.setLong(2, delta.getKey());
+                });
+    }
+
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> filmIds) {
+        if (filmIds.isEmpty()) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(namedParameterJdbcTemplate.queryForList(
+                "SELECT film_id FROM " + FILMS + " WHERE film_id IN (:ids)",
+                new MapSqlParameterSource("ids", new HashSet<>(filmIds)), Long.class));
+    }
+
+    @Override
+    public Long getLikeTimestamp(Long filmId, Long userId) {
+        List<Long> timestamps = jdbcTemplate.query(
+                "SELECT created_at FROM " + LIKES + " WHERE film_id = ? AND user_id = ?",
+                (rs, rowNum) -> rs.getTimestamp("created_at").getTime(), filmId, userId);
+
+        return timestamps.isEmpty() ? null : timestamps.get(0);
+    }
+
+    @Override
+    public void streamLikes(Consumer<Like> consumer) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT user_id, film_id, created_at FROM " + LIKES,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(streamFetchSize);
+            return ps;
+        }, (RowCallbackHandler) rs -> consumer.accept(new Like(
+                rs.getLong("user_id"),
+                rs.getLong("film_id"),
+                rs.getTimestamp("created_at").getTime()
+        )));
+    }
+
+    /**
+     * Удаляет все лайки пользователя и уменьшает счетчики затронутых фильмов.
+     * Возвращает удаленные лайки со временем их постановки.
+     */
+    @Override
+    @Transactional
+    public List<Like> removeLikesByUser(Long userId) {
+        List<Like> likes = jdbcTemplate.query("SELECT film_id, created_at FROM " + LIKES + " WHERE user_id = ?",
+                (rs, rowNum) -> new Like(userId, rs.getLong("film_id"), rs.getTimestamp("created_at").getTime()),
+                userId);
+
+        if (!likes.isEmpty()) {
+            jdbcTemplate.update("UPDATE " + FILMS + " AS f SET like_count = like_count - " +
+                    "(SELECT COUNT(*) FROM " + LIKES + " AS l WHERE l.film_id = f.film_id AND l.user_id = ?) " +
+                    "WHERE f.film_id IN (SELECT film_id FROM " + LIKES + " WHERE user_id = ?)", userId, userId);
+            jdbcTemplate.update("DELETE FROM " + LIKES + " WHERE user_id = ?", userId);
+        }
+
+        return likes;
+    }
+
+    @Override
+    public int reconcileLikeCounts() {
+        String sql = "UPDATE " + FILMS + " AS f " +
+                "SET like_count = (SELECT COUNT(*) FROM " + LIKES + " AS l WHERE l.film_id = f.film_id) " +
+                "WHERE like_count <> (SELECT COUNT(*) FROM " + LIKES + " AS l WHERE l.film_id = f.film_id)";
+
+        return jdbcTemplate.update(sql);
     }
 
     @Override
@@ -312,17 +557,16 @@ public class FilmDbStorage implements FilmStorage {
         StringJoiner sqlQuery = new StringJoiner(" ");
 
         sqlQuery.add(
-                "SELECT f.*, count(l.user_id) AS " + LIKES + ", EXTRACT(YEAR FROM (f.release_date)) AS sort_by_year " +
+                "SELECT f.film_id, f.like_count, EXTRACT(YEAR FROM (f.release_date)) AS sort_by_year " +
                         "FROM " + FILMS + " AS f " +
-                        "LEFT OUTER JOIN " + FILMS + "_director AS fd ON f.film_id = fd.film_id " +
-                        "LEFT OUTER JOIN " + LIKES + " AS l ON l.film_id = f.film_id " +
-                        "WHERE fd.director_id = " + directorId + " " +
-                        "GROUP BY f.film_id"
+                        "JOIN " + FILMS + "_director AS fd ON f.film_id = fd.film_id " +
+                        "WHERE fd.director_id = ?"
         );
 
         switch (sortBy.orElse("")) {
-            case "like": {
-                sqlQuery.add("ORDER BY sort_by_like ASC");
+            case "like":
+            case "likes": {
+                sqlQuery.add("ORDER BY f.like_count DESC");
                 break;
             }
             case "year": {
@@ -332,8 +576,8 @@ public class FilmDbStorage implements FilmStorage {
         }
 
 
-        List<Film> films = mapToFilms(
-                jdbcTemplate.queryForList(sqlQuery.toString())
+        List<Film> films = filmHydrator.loadFilms(
+                jdbcTemplate.query(sqlQuery.toString(), this::mapRowToFilmId, directorId)
         );
 
         if (films.size() == 0) {
@@ -343,129 +587,58 @@ public class FilmDbStorage implements FilmStorage {
         return films;
     }
 
-    private List<Film> mapToFilms(List<Map<String, Object>> allFilms) {
-        ArrayList<Film> films = new ArrayList<>();
-
-        allFilms.forEach(f -> {
-            Long id = Long.parseLong(f.get("film_id").toString());
-
-            films.add(
-                    Film
-                            .builder()
-                            .id(id)
-                            .description(f.get("description").toString())
-                            .name(f.get("name").toString())
-                            .duration((int) f.get("duration"))
-                            .releaseDate(LocalDate.parse(f.get("release_date").toString()))
-                            .directors(directorDbStorage.getDirectorsByFilm(id))
-                            .mpa(mpaDbStorage.getMpaById((int) f.get(MPA_RATING + "_id")))
-                            .genres(getGenresForFilm(id))
-                            .build()
-            );
-        });
-
-        return films;
-    }
-
     @Override
     public List<Film> getRecommendations(Integer userId) {
-        return jdbcTemplate.query(RECOMMENDED_FILMS, new Object[]{userId, userId, userId}, (rs, rowNum) -> {
-            Film film = new Film();
-            film.setId(rs.getLong("film_id"));
-            film.setName(rs.getString("film_name"));
-            film.setDescription(rs.getString("film_description"));
-            film.setReleaseDate(rs.getDate("release_date").toLocalDate());
-            film.setDuration(rs.getInt("duration"));
-            film.setMpa(mpaDbStorage.getMpaById(rs.getInt(MPA_RATING + "_id")));
-            String genresStr = rs.getString(GENRES);
-            List<Genre> genres = new ArrayList<>();
-            if (genresStr != null) {
-                String[] genreNames = genresStr.split(", ");
-                for (String genreName : genreNames) {
-                    Long genreId = genreStorage.getGenreIdByName(genreName);
-                    if (genreId == null) {
-                        genreId = genreStorage.addGenre(new Genre(null, genreName));
-                    }
-                    genres.add(new Genre(genreId, genreName));
-                }
-            }
-            film.setGenres(genres);
-            return film;
-        });
+        List<Long> filmIds = jdbcTemplate.query(RECOMMENDED_FILMS, this::mapRowToFilmId, userId, userId, userId);
+
+        return filmHydrator.loadFilms(filmIds);
     }
 
     public List<Film> searchBy(String query, String by) {
-        List<Film> searchResults = new ArrayList<>();
+        List<Long> searchResults = new ArrayList<>();
 
         switch (by) {
             case "title": {
-                String sql = "SELECT " + FILMS + ".*, G.genre_id, GT.name AS genre_name, COUNT(l.film_id) as count " +
-                        "FROM " + FILMS + " " +
-                        "LEFT JOIN " + GENRE_FILM + " g ON " + FILMS + ".film_id = g.film_id " +
-                        "LEFT JOIN " + GENRES + " gt on g.genre_id = gt.genre_id " +
-                        "LEFT JOIN " + LIKES + " l ON " + FILMS + ".film_id=l.film_id " +
-                        "WHERE LOWER(" + FILMS + ".name) LIKE LOWER(CONCAT('%',?,'%')) " +
-                        "GROUP BY " + FILMS + ".film_id " +
-                        "ORDER BY count DESC";
-                searchResults = jdbcTemplate.query(sql, this::mapToFilm, query);
+                String sql = "SELECT f.film_id " +
+                        "FROM " + FILMS + " AS f " +
+                        "WHERE LOWER(f.name) LIKE LOWER(CONCAT('%',?,'%')) " +
+                        "ORDER BY f.like_count DESC";
+                searchResults = jdbcTemplate.query(sql, this::mapRowToFilmId, query);
                 break;
             }
             case "director": {
-                String sql = "SELECT " + FILMS + ".*, COUNT(l.film_id) as count " +
-                        "FROM " + FILMS + " " +
-                        "JOIN " + FILMS + "_director  df ON films.film_id=df.film_id " +
-                        "JOIN directors  d ON df.director_id=d.director_id " +
-                        "LEFT JOIN " + LIKES + " l ON " + FILMS + ".film_id=l.film_id " +
+                String sql = "SELECT DISTINCT f.film_id, f.like_count " +
+                        "FROM " + FILMS + " AS f " +
+                        "JOIN " + FILMS + "_director df ON f.film_id = df.film_id " +
+                        "JOIN directors d ON df.director_id = d.director_id " +
                         "WHERE LOWER(d.name) LIKE LOWER(CONCAT('%',?,'%')) " +
-                        "GROUP BY " + FILMS + ".film_id " +
-                        "ORDER BY count DESC";
-                searchResults = jdbcTemplate.query(sql, this::mapToFilm, query);
+                        "ORDER BY f.like_count DESC";
+                searchResults = jdbcTemplate.query(sql, this::mapRowToFilmId, query);
                 break;
             }
             case "title,director": {
-                String sql = "SELECT " + FILMS + ".*, COUNT(l.film_id) as count " +
-                        "FROM " + FILMS + " " +
-                        "LEFT JOIN " + FILMS + "_director  df ON films.film_id=df.film_id " +
-                        "LEFT JOIN directors  d ON df.director_id=d.director_id " +
-                        "LEFT JOIN " + LIKES + " l ON " + FILMS + ".film_id=l.film_id " +
-                        "WHERE LOWER(" + FILMS + ".name) LIKE LOWER(CONCAT('%',?,'%')) " +
+                String sql = "SELECT DISTINCT f.film_id, f.like_count " +
+                        "FROM " + FILMS + " AS f " +
+                        "LEFT JOIN " + FILMS + "_director df ON f.film_id = df.film_id " +
+                        "LEFT JOIN directors d ON df.director_id = d.director_id " +
+                        "WHERE LOWER(f.name) LIKE LOWER(CONCAT('%',?,'%')) " +
                         "OR LOWER(d.name) LIKE LOWER(CONCAT('%',?,'%')) " +
-                        "GROUP BY " + FILMS + ".film_id " +
-                        "ORDER BY count DESC";
-                searchResults = jdbcTemplate.query(sql, this::mapToFilm, query, query);
+                        "ORDER BY f.like_count DESC";
+                searchResults = jdbcTemplate.query(sql, this::mapRowToFilmId, query, query);
                 break;
             }
         }
-        return searchResults;
+        return filmHydrator.loadFilms(searchResults);
     }
 
     @Override
     public void deleteFilm(Long id) {
         String sqlQuery = "DELETE FROM " + FILMS + " WHERE film_id = ?";
         jdbcTemplate.update(sqlQuery, id);
+        filmAggregateCache.invalidate(id);
     }
 
-    private Film mapToFilm(ResultSet rs, int rowNum) throws SQLException {
-        Long id = rs.getLong("film_id");
-        String name = rs.getString("name");
-        String description = rs.getString("description");
-        Integer duration = rs.getInt("duration");
-        LocalDate releaseDate = rs.getDate("release_date").toLocalDate();
-        Mpa mpa = mpaDbStorage.getMpaById(rs.getInt(MPA_RATING + "_id"));
-        List<Genre> genres = getGenresForFilm(id);
-        LinkedHashSet<Director> directors = directorDbStorage.getDirectorsByFilm(id);
-
-        log.info("Создание объекта фильма из базы с id {}", id);
-
-        return Film.builder()
-                .id(id)
-                .name(name)
-                .description(description)
-                .duration(duration)
-                .releaseDate(releaseDate)
-                .mpa(mpa)
-                .genres(genres)
-                .directors(directors)
-                .build();
+    private Long mapRowToFilmId(ResultSet rs, int rowNum) throws SQLException {
+        return rs.getLong("film_id");
     }
 }
@@ -0,0 +1,105 @@
+package ru.yandex.practicum.filmorate.storage.db;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.storage.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.MpaStorage;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Собирает полные агрегаты фильмов для списка идентификаторов за фиксированное число запросов:
+ * один на сами фильмы, один на жанры и один на режиссеров, независимо от длины списка.
+ * Рейтинги MPA и названия жанров берутся из справочников в памяти.
+ */
+@Component
+@Slf4j
+@AllArgsConstructor
+public class FilmHydrator {
+    public static final String FILMS = "films";
+    public static final String MPA_RATING = "mpa_rating";
+    /**
+     * Выборка фильмов, пригодная для {@link #mapRowToFilm}.
+     */
+    public static final String FILM_SELECT = "SELECT f.* FROM " + FILMS + " AS f ";
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final GenreStorage genreStorage;
+    private final MpaStorage mpaStorage;
+    private final DirectorStorage directorStorage;
+
+
+    /**
+     * Возвращает фильмы в том же порядке, в котором переданы идентификаторы.
+     * Идентификаторы, для которых фильм не найден, пропускаются.
+     */
+    public List<Film> loadFilms(List<Long> filmIds) {
+        if (filmIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Set<Long> uniqueIds = new LinkedHashSet<>(filmIds);
+        log.info("Загрузка {} фильмов пакетом", uniqueIds.size());
+
+        Map<Long, Film> filmsById = new HashMap<>();
+        namedParameterJdbcTemplate.query(FILM_SELECT + "WHERE f.film_id IN (:ids)",
+                new MapSqlParameterSource("ids", uniqueIds), rs -> {
+                    Film film = mapRowToFilm(rs, 0);
+                    filmsById.put(film.getId(), film);
+                });
+
+        List<Film> films = new ArrayList<>(filmsById.size());
+        for (Long filmId : uniqueIds) {
+            Film film = filmsById.get(filmId);
+            if (film != null) {
+                films.add(film);
+            }
+        }
+
+        return hydrate(films);
+    }
+
+    /**
+     * Дозаполняет жанры и режиссеров уже прочитанных фильмов двумя запросами на весь список.
+     */
+    public List<Film> hydrate(List<Film> films) {
+        if (films.isEmpty()) {
+            return films;
+        }
+
+        Set<Long> filmIds = new HashSet<>();
+        films.forEach(film -> filmIds.add(film.getId()));
+
+        Map<Long, List<Genre>> genres = genreStorage.getGenresByFilmIds(filmIds);
+        Map<Long, LinkedHashSet<Director>> directors = directorStorage.getDirectorsByFilmIds(filmIds);
+
+        for (Film film : films) {
+            film.setGenres(genres.getOrDefault(film.getId(), new ArrayList<>()));
+            film.setDirectors(directors.getOrDefault(film.getId(), new LinkedHashSet<>()));
+        }
+
+        return films;
+    }
+
+    public Film mapRowToFilm(ResultSet rs, int rowNum) throws SQLException {
+        Film film = new Film();
+        film.setId(rs.getLong("film_id"));
+        film.setName(rs.getString("name"));
+        film.setDescription(rs.getString("description"));
+        Date releaseDateField = rs.getDate("release_date");
+        film.setReleaseDate(releaseDateField != null ? releaseDateField.toLocalDate() : null);
+        film.setDuration(rs.getInt("duration"));
+        film.setMpa(mpaStorage.getMpaById(rs.getInt(MPA_RATING + "_id")));
+
+        return film;
+    }
+}
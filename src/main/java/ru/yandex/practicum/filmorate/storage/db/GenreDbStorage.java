@@ -2,24 +2,27 @@ package ru.yandex.practicum.filmorate.storage.db;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.context.annotation.Primary;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.storage.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.memory.FilmAggregateCache;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 @Slf4j
 @Component
-@Primary
 @AllArgsConstructor
 public class GenreDbStorage implements GenreStorage {
 
     public static final String GENRES = "genres";
+    public static final String GENRE_FILM = "genre_film";
     private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final FilmAggregateCache filmAggregateCache;
 
 
 
@@ -73,8 +76,54 @@ public class GenreDbStorage implements GenreStorage {
 
     @Override
     public Long addGenre(Genre genre) {
-        String sql = "INSERT INTO " + GENRES + " (genre_id) " + "SELECT ? "
-                + "WHERE NOT exists (SELECT * FROM " + GENRES + " WHERE name = ?)";
-        return jdbcTemplate.queryForObject(sql, Long.class, genre.getName());
+        Long existingId = getGenreIdByName(genre.getName());
+        if (existingId != null) {
+            return existingId;
+        }
+
+        String sql = "INSERT INTO " + GENRES + " (genre_id, name) "
+                + "SELECT COALESCE(MAX(genre_id), 0) + 1, CAST(? AS VARCHAR) FROM " + GENRES;
+        jdbcTemplate.update(sql, genre.getName());
+        filmAggregateCache.clear();
+        return getGenreIdByName(genre.getName());
+    }
+
+    @Override
+    public Map<Long, List<Genre>> getGenresByFilmIds(Collection<Long> filmIds) {
+        Map<Long, List<Genre>> genresByFilm = new HashMap<>();
+        if (filmIds.isEmpty()) {
+            return genresByFilm;
+        }
+
+        String sql = "SELECT gf.film_id, g.genre_id, g.name " +
+                "FROM " + GENRE_FILM + " AS gf " +
+                "JOIN " + GENRES + " AS g ON g.genre_id = gf.genre_id " +
+                "WHERE gf.film_id IN (:ids) " +
+                "ORDER BY gf.film_id, g.genre_id";
+
+        namedParameterJdbcTemplate.query(sql, new MapSqlParameterSource("ids", filmIds), rs -> {
+            Genre genre = new Genre(rs.getLong("genre_id"), rs.getString("name"));
+            genresByFilm.computeIfAbsent(rs.getLong("film_id"), id -> new ArrayList<>()).add(genre);
+        });
+
+        return genresByFilm;
+    }
+
+    public Map<Long, List<Long>> getGenreIdsByFilmIds(Collection<Long> filmIds) {
+        Map<Long, List<Long>> genreIdsByFilm = new HashMap<>();
+        if (filmIds.isEmpty()) {
+            return genreIdsByFilm;
+        }
+
+        String sql = "SELECT film_id, genre_id FROM " + GENRE_FILM + " " +
+                "WHERE film_id IN (:ids) " +
+                "ORDER BY film_id, genre_id";
+
+        namedParameterJdbcTemplate.query(sql, new MapSqlParameterSource("ids", filmIds), rs -> {
+            genreIdsByFilm.computeIfAbsent(rs.getLong("film_id"), id -> new ArrayList<>())
+                    .add(rs.getLong("genre_id"));
+        });
+
+        return genreIdsByFilm;
     }
 }
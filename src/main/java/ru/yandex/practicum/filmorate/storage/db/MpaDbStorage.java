@@ -2,7 +2,6 @@ package ru.yandex.practicum.filmorate.storage.db;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.context.annotation.Primary;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
@@ -15,7 +14,6 @@ import java.util.List;
 
 @Component
 @Slf4j
-@Primary
 @AllArgsConstructor
 public class MpaDbStorage implements MpaStorage {
     public static final String MPA_RATING = "mpa_rating";
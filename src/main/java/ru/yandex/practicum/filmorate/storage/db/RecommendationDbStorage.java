@@ -0,0 +1,88 @@
+package ru.yandex.practicum.filmorate.storage.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.model.Recommendation;
+import ru.yandex.practicum.filmorate.storage.RecommendationStorage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+@Component
+@Slf4j
+public class RecommendationDbStorage implements RecommendationStorage {
+    public static final String USER_RECOMMENDATIONS = "user_recommendations";
+    public static final String RUNS = "recommendation_runs";
+    public static final String CHECKPOINTS = "recommendation_checkpoints";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    public RecommendationDbStorage(JdbcTemplate jdbcTemplate,
+                                   @Value("${filmorate.recommendations.batch.insert-size:1000}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public Long findUnfinishedRun() {
+        List<Long> runIds = jdbcTemplate.queryForList("SELECT run_id FROM " + RUNS +
+                " WHERE finished_at IS NULL ORDER BY run_id DESC LIMIT 1", Long.class);
+        return runIds.isEmpty() ? null : runIds.get(0);
+    }
+
+    @Override
+    public Long startRun() {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> connection.prepareStatement(
+                "INSERT INTO " + RUNS + " (started_at) VALUES (CURRENT_TIMESTAMP)", new String[]{"run_id"}), keyHolder);
+        return Objects.requireNonNull(keyHolder.getKey()).longValue();
+    }
+
+    @Override
+    public Set<Long> getCompletedRanges(Long runId) {
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT range_start FROM " + CHECKPOINTS + " WHERE run_id = ?", Long.class, runId));
+    }
+
+    @Override
+    @Transactional
+    public void saveRange(Long runId, Long rangeStart, Long rangeEnd, List<Recommendation> recommendations) {
+        jdbcTemplate.update("DELETE FROM " + USER_RECOMMENDATIONS + " WHERE user_id >= ? AND user_id < ?",
+                rangeStart, rangeEnd);
+
+        List<Object[]> rows = new ArrayList<>(recommendations.size());
+        Long userId = null;
+        int position = 0;
+        for (Recommendation recommendation : recommendations) {
+            if (!recommendation.getUserId().equals(userId)) {
+                userId = recommendation.getUserId();
+                position = 0;
+            }
+            rows.add(new Object[]{userId, position++, recommendation.getFilmId(), recommendation.getScore()});
+        }
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            jdbcTemplate.batchUpdate("INSERT INTO " + USER_RECOMMENDATIONS +
+                            " (user_id, position, film_id, score) VALUES (?, ?, ?, ?)",
+                    rows.subList(from, Math.min(rows.size(), from + batchSize)));
+        }
+
+        jdbcTemplate.update("INSERT INTO " + CHECKPOINTS + " (run_id, range_start) VALUES (?, ?)", runId, rangeStart);
+    }
+
+    @Override
+    @Transactional
+    public void finishRun(Long runId, Long rangeEnd) {
+        jdbcTemplate.update("DELETE FROM " + USER_RECOMMENDATIONS + " WHERE user_id >= ?", rangeEnd);
+        jdbcTemplate.update("UPDATE " + RUNS + " SET finished_at = CURRENT_TIMESTAMP WHERE run_id = ?", runId);
+        jdbcTemplate.update("DELETE FROM " + CHECKPOINTS + " WHERE run_id = ?", runId);
+    }
+}
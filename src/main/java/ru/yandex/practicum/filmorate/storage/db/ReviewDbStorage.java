@@ -8,6 +8,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Review;
 import ru.yandex.practicum.filmorate.storage.ReviewStorage;
@@ -16,6 +17,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
@@ -25,64 +27,45 @@ import java.util.Objects;
 @AllArgsConstructor
 public class ReviewDbStorage implements ReviewStorage {
     public static final String REVIEWS = "reviews";
+    public static final String REVIEWS_LIKES = "reviews_likes";
     private final JdbcTemplate jdbcTemplate;
 
 
+    /**
+     * Отзывы по убыванию useful, при равенстве - по возрастанию review_id. Курсор
+     * (afterUseful, afterId) - ключ последнего отзыва предыдущей страницы.
+     */
     @Override
-    public List<Review> findAll(Long filmId, Integer count) {
+    public List<Review> findAll(Long filmId, Integer afterUseful, Long afterId, Integer count) {
         log.info("Получения списка отзывов для фильма id = {}, с количеством вывода count = {}", filmId, count);
 
-        String sqlQuery = String.format(
-                "SELECT r.review_id, " +
-                        "r.content, " +
-                        "r.is_positive, " +
-                        "r.user_id, " +
-                        "r.film_id, " +
-                        "COALESCE(c.positive_count - c.negative_count, 0) AS useful " +
-                        "FROM " + REVIEWS + " AS r " +
-                        "LEFT OUTER JOIN (" +
-                        "SELECT rl.review_id, " +
-                        "SUM(case when rl.is_positive = true then 1 else 0 end)  AS positive_count, " +
-                        "SUM(case when rl.is_positive = false then 1 else 0 end) AS negative_count " +
-                        "FROM " + REVIEWS + "_likes AS rl " +
-                        "GROUP BY rl.review_id " +
-                        ") AS c ON c.review_id = r.review_id " +
-                        "%s " +
-                        "ORDER BY useful DESC " +
-                        "LIMIT ?",
-                filmId == null ? "" : "WHERE r.film_id = " + filmId
-        );
-
+        List<String> conditions = new ArrayList<>();
+        List<Object> params = new ArrayList<>();
+        if (filmId != null) {
+            conditions.add("film_id = ?");
+            params.add(filmId);
+        }
+        if (afterUseful != null) {
+            conditions.add("(useful < ? OR (useful = ? AND review_id > ?))");
+            params.add(afterUseful);
+            params.add(afterUseful);
+            params.add(afterId);
+        }
+        params.add(count);
 
-        return jdbcTemplate.query(sqlQuery, this::mapToReviewList, count);
+        String sqlQuery = "SELECT * FROM " + REVIEWS +
+                (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions)) +
+                " ORDER BY useful DESC, review_id LIMIT ?";
+        return jdbcTemplate.query(sqlQuery, this::mapToReviewList, params.toArray());
     }
 
     @Override
     public Review findById(Long id) {
         log.info("Получения отзыва для фильма id = {}", id);
 
-        String sqlQuery = (
-                "SELECT r.review_id, " +
-                        "r.content, " +
-                        "r.is_positive, " +
-                        "r.user_id, " +
-                        "r.film_id, " +
-                        "COALESCE(c.positive_count - c.negative_count, 0) AS useful " +
-                        "FROM " + REVIEWS + " AS r " +
-                        "LEFT OUTER JOIN (" +
-                        "SELECT rl.review_id, " +
-                        "SUM(case when rl.is_positive = true then 1 else 0 end)  AS positive_count, " +
-                        "SUM(case when rl.is_positive = false then 1 else 0 end) AS negative_count " +
-                        "FROM " + REVIEWS + "_likes AS rl " +
-                        "GROUP BY rl.review_id " +
-                        ") AS c ON c.review_id = r.review_id " +
-                        "WHERE r.review_id = ? " +
-                        "ORDER BY useful DESC "
-
-        );
-
         try {
-            return jdbcTemplate.queryForObject(sqlQuery, this::mapToReviewList, id);
+            return jdbcTemplate.queryForObject("SELECT * FROM " + REVIEWS + " WHERE review_id = ?",
+                    this::mapToReviewList, id);
         } catch (EmptyResultDataAccessException e) {
             log.info("Отзыв не найден");
             throw new NotFoundException("Отзыв не найден");
@@ -140,35 +123,72 @@ public class ReviewDbStorage implements ReviewStorage {
     }
 
     @Override
+    @Transactional
     public void addLike(Long reviewId, Long userId) {
         log.info("Добавление лайка отзыву с id = {}, пользователем с id = {}", reviewId, userId);
-        String sqlQuery = "INSERT INTO " + REVIEWS + "_likes (review_id, user_id, is_positive) VALUES (?, ?, true)";
-
-        jdbcTemplate.update(sqlQuery, reviewId, userId);
+        addVote(reviewId, userId, true);
     }
 
     @Override
+    @Transactional
     public void deleteLike(Long reviewId, Long userId) {
         log.info("Удаление лайка отзыву с id = {}, пользователем с id = {}", reviewId, userId);
-        String sqlQuery = "DELETE FROM " + REVIEWS + "_likes WHERE review_id = ? AND user_id = ? AND is_positive = true";
-
-        jdbcTemplate.update(sqlQuery, reviewId, userId);
+        deleteVote(reviewId, userId, true);
     }
 
     @Override
+    @Transactional
     public void addDislike(Long reviewId, Long userId) {
         log.info("Добавление дизлайка отзыву с id = {}, пользователем с id = {}", reviewId, userId);
-        String sqlQuery = "INSERT INTO " + REVIEWS + "_likes (review_id, user_id, is_positive) VALUES (?, ?, false)";
-
-        jdbcTemplate.update(sqlQuery, reviewId, userId);
+        addVote(reviewId, userId, false);
     }
 
     @Override
+    @Transactional
     public void deleteDislike(Long reviewId, Long userId) {
         log.info("Удаление дизлайка отзыву с id = {}, пользователем с id = {}", reviewId, userId);
-        String sqlQuery = "DELETE FROM " + REVIEWS + "_likes WHERE review_id = ? AND user_id = ? AND is_positive = false";
+        deleteVote(reviewId, userId, false);
+    }
 
-        jdbcTemplate.update(sqlQuery, reviewId, userId);
+    /**
+     * Снимает голоса пользователя с отзывов вместе с их вкладом в useful. Вызывается до удаления
+     * пользователя, потому что каскадное удаление оценок не меняет рейтинг отзывов.
+     */
+    @Override
+    @Transactional
+    public void removeVotesByUser(Long userId) {
+        jdbcTemplate.update("UPDATE " + REVIEWS + " AS r SET useful = useful - " +
+                "(SELECT SUM(CASE WHEN rl.is_positive THEN 1 ELSE -1 END) FROM " + REVIEWS_LIKES + " AS rl " +
+                "WHERE rl.review_id = r.review_id AND rl.user_id = ?) " +
+                "WHERE r.review_id IN (SELECT review_id FROM " + REVIEWS_LIKES + " WHERE user_id = ?)", userId, userId);
+        jdbcTemplate.update("DELETE FROM " + REVIEWS_LIKES + " WHERE user_id = ?", userId);
+    }
+
+    /**
+     * Вызывается в транзакции вместе с изменением useful: useful меняется, только если
+     * оценка действительно добавилась, а повторная оценка ничего не меняет.
+     */
+    private void addVote(Long reviewId, Long userId, boolean isPositive) {
+        String sqlQuery = "INSERT INTO " + REVIEWS_LIKES + " (review_id, user_id, is_positive) " +
+                "SELECT CAST(? AS INTEGER), CAST(? AS INTEGER), CAST(? AS BOOLEAN) " +
+                "WHERE NOT EXISTS (SELECT 1 FROM " + REVIEWS_LIKES +
+                " WHERE review_id = ? AND user_id = ? AND is_positive = ?)";
+        int added = jdbcTemplate.update(sqlQuery, reviewId, userId, isPositive, reviewId, userId, isPositive);
+
+        if (added > 0) {
+            jdbcTemplate.update("UPDATE " + REVIEWS + " SET useful = useful + ? WHERE review_id = ?",
+                    isPositive ? added : -added, reviewId);
+        }
+    }
+
+    private void deleteVote(Long reviewId, Long userId, boolean isPositive) {
+        String sqlQuery = "DELETE FROM " + REVIEWS_LIKES + " WHERE review_id = ? AND user_id = ? AND is_positive = ?";
+        int removed = jdbcTemplate.update(sqlQuery, reviewId, userId, isPositive);
+
+        if (removed > 0) {
+            jdbcTemplate.update("UPDATE " + REVIEWS + " SET useful = useful - ? WHERE review_id = ?",
+                    isPositive ? removed : -removed, reviewId);
+        }
     }
 
     private Review mapToReviewList(ResultSet resultSet, int rowNum) throws SQLException {
@@ -2,16 +2,29 @@ package ru.yandex.practicum.filmorate.storage.db;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.*;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 @Component
 @Slf4j
@@ -21,6 +34,9 @@ public class UserDbStorage implements UserStorage {
     public static final String USERS = "users";
     public static final String FRIENDS = "friends";
     private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    @Value("${filmorate.stream.fetch-size:500}")
+    private final int streamFetchSize;
 
     @Override
     public User createUser(User user) {
@@ -40,6 +56,44 @@ public class UserDbStorage implements UserStorage {
         return getUserbyId(userId);
     }
 
+    /**
+     * Пакетная вставка пользователей без повторного чтения: идентификаторы берутся из
+     * сгенерированных ключей и проставляются переданным объектам.
+     */
+    @Override
+    @Transactional
+    public List<User> createUsers(List<User> users) {
+        if (users.isEmpty()) {
+            return users;
+        }
+        String sql = "INSERT INTO " + USERS + " (name, email, login, birthday) VALUES (?, ?, ?, ?)";
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                for (User user : users) {
+                    ps.setString(1, user.getName());
+                    ps.setString(2, user.getEmail());
+                    ps.setString(3, user.getLogin());
+                    ps.setObject(4, user.getBirthday());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+
+                int index = 0;
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    while (keys.next() && index < users.size()) {
+                        users.get(index++).setId(keys.getLong(1));
+                    }
+                }
+                if (index != users.size()) {
+                    throw new IllegalStateException("Получено " + index + " ключей для " + users.size() + " пользователей");
+                }
+            }
+            return null;
+        });
+        log.info("Добавлено пользователей: {}", users.size());
+        return users;
+    }
+
     @Override
     public User updateUser(User user) {
         if (getUserbyId(user.getId()) == null)
@@ -75,6 +129,23 @@ public class UserDbStorage implements UserStorage {
 
     }
 
+    @Override
+    public List<User> getUsersPage(Long afterId, Integer limit) {
+        String sql = "SELECT * FROM " + USERS + " WHERE user_id > ? ORDER BY user_id LIMIT ?";
+
+        return jdbcTemplate.query(sql, this::mapRowToUser, afterId == null ? 0 : afterId, limit);
+    }
+
+    @Override
+    public void streamAllUsers(Consumer<User> consumer) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT * FROM " + USERS + " ORDER BY user_id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(streamFetchSize);
+            return ps;
+        }, (RowCallbackHandler) rs -> consumer.accept(mapRowToUser(rs, rs.getRow())));
+    }
+
     @Override
     public User getUserbyId(Long id) {
 
@@ -99,6 +170,53 @@ public class UserDbStorage implements UserStorage {
     }
 
 
+    @Override
+    public Set<Long> findExistingIds(Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(namedParameterJdbcTemplate.queryForList(
+                "SELECT user_id FROM " + USERS + " WHERE user_id IN (:ids)",
+                new MapSqlParameterSource("ids", new HashSet<>(userIds)), Long.class));
+    }
+
+    /**
+     * Загружает пользователей одним запросом в порядке переданных идентификаторов.
+     */
+    @Override
+    public List<User> getUsersByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Set<Long> uniqueIds = new LinkedHashSet<>(ids);
+        Map<Long, User> usersById = new HashMap<>();
+        namedParameterJdbcTemplate.query("SELECT * FROM " + USERS + " WHERE user_id IN (:ids)",
+                new MapSqlParameterSource("ids", uniqueIds), rs -> {
+                    User user = mapRowToUser(rs, 0);
+                    usersById.put(user.getId(), user);
+                });
+
+        List<User> users = new ArrayList<>(usersById.size());
+        for (Long id : uniqueIds) {
+            User user = usersById.get(id);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public void streamFriendEdges(BiConsumer<Long, Long> consumer) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement("SELECT user_id, friend_id FROM " + FRIENDS,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(streamFetchSize);
+            return ps;
+        }, (RowCallbackHandler) rs -> consumer.accept(rs.getLong("user_id"), rs.getLong("friend_id")));
+    }
+
     public List<Map<String, Object>> getAllFriends() {
         SqlRowSet friendRows = jdbcTemplate.queryForRowSet("SELECT * FROM " + FRIENDS + " ORDER BY user_id");
         ArrayList<Map<String, Object>> friends = new ArrayList<>();
@@ -160,6 +278,43 @@ public class UserDbStorage implements UserStorage {
         simpleJdbcInsert.execute(values);
     }
 
+    /**
+     * Добавляет ребра дружбы одним пакетом. Возвращает ребра, которых еще не было.
+     */
+    @Override
+    @Transactional
+    public List<FriendEdge> addFriends(List<FriendEdge> edges) {
+        if (edges.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String sql = "INSERT INTO " + FRIENDS + " (user_id, friend_id) " +
+                "SELECT CAST(? AS INTEGER), CAST(? AS INTEGER) " +
+                "WHERE NOT EXISTS (SELECT 1 FROM " + FRIENDS + " WHERE user_id = ? AND friend_id = ?)";
+        int[] counts = jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                FriendEdge edge = edges.get(i);
+                ps.setLong(1, edge.getUserId());
+                ps.setLong(2, edge.getFriendId());
+                ps.setLong(3, edge.getUserId());
+                ps.setLong(4, edge.getFriendId());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return edges.size();
+            }
+        });
+
+        List<FriendEdge> added = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                added.add(edges.get(i));
+            }
+        }
+        return added;
+    }
+
     @Override
     public void deleteFriend(Long id, Long friendId) {
         String sql = "DELETE FROM " + FRIENDS + " WHERE friend_id = ? AND user_id = ? ";
@@ -189,4 +344,15 @@ public class UserDbStorage implements UserStorage {
         return mutualFriends;
 
     }
+
+    private User mapRowToUser(ResultSet rs, int rowNum) throws SQLException {
+        User user = new User();
+        user.setId(rs.getLong("user_id"));
+        user.setEmail(rs.getString("email"));
+        user.setName(rs.getString("name"));
+        user.setLogin(rs.getString("login"));
+        user.setBirthday(Objects.requireNonNull(rs.getDate("birthday")).toLocalDate());
+
+        return user;
+    }
 }
@@ -0,0 +1,175 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Ограниченный по размеру и времени жизни LRU-кеш полностью собранных фильмов.
+ * Отсутствующие фильмы не кешируются.
+ */
+@Component
+@Slf4j
+public class FilmAggregateCache {
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<Long, CachedFilm> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long generation;
+
+    public FilmAggregateCache(
+            @Value("${filmorate.cache.films.max-size:1000}") int maxSize,
+            @Value("${filmorate.cache.films.ttl-seconds:300}") long ttlSeconds
+    ) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedFilm> eldest) {
+                if (size() > FilmAggregateCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Film get(Long filmId, Function<Long, Film> loader) {
+        long loadGeneration;
+        synchronized (this) {
+            Film cached = lookup(filmId);
+            if (cached != null) {
+                return cached;
+            }
+            loadGeneration = generation;
+        }
+
+        Film film = loader.apply(filmId);
+
+        synchronized (this) {
+            // пока фильм читался из базы, кеш могли инвалидировать - такой результат не сохраняем
+            if (film != null && loadGeneration == generation) {
+                entries.put(filmId, new CachedFilm(film, System.currentTimeMillis()));
+            }
+        }
+
+        return film;
+    }
+
+    /**
+     * Возвращает фильмы в порядке переданных идентификаторов. Недостающие в кеше фильмы
+     * загружаются одним вызовом loader.
+     */
+    public List<Film> getAll(List<Long> filmIds, Function<List<Long>, List<Film>> loader) {
+        Map<Long, Film> found = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        long loadGeneration;
+
+        synchronized (this) {
+            for (Long filmId : filmIds) {
+                Film cached = lookup(filmId);
+                if (cached != null) {
+                    found.put(filmId, cached);
+                } else {
+                    missing.add(filmId);
+                }
+            }
+            loadGeneration = generation;
+        }
+
+        if (!missing.isEmpty()) {
+            List<Film> loaded = loader.apply(missing);
+            synchronized (this) {
+                for (Film film : loaded) {
+                    found.put(film.getId(), film);
+                    if (loadGeneration == generation) {
+                        entries.put(film.getId(), new CachedFilm(film, System.currentTimeMillis()));
+                    }
+                }
+            }
+        }
+
+        List<Film> films = new ArrayList<>(filmIds.size());
+        for (Long filmId : filmIds) {
+            Film film = found.get(filmId);
+            if (film != null) {
+                films.add(film);
+            }
+        }
+        return films;
+    }
+
+    public synchronized void invalidate(Long filmId) {
+        generation++;
+        if (entries.remove(filmId) != null) {
+            log.debug("Фильм {} удален из кеша", filmId);
+        }
+    }
+
+    public synchronized void invalidateAll(Collection<Long> filmIds) {
+        generation++;
+        filmIds.forEach(entries::remove);
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    /**
+     * Периодически пишет в лог статистику кеша.
+     */
+    @Scheduled(fixedDelayString = "${filmorate.metrics.log-interval-ms:60000}")
+    public synchronized void logStats() {
+        log.info("Кеш фильмов: размер {}, попаданий {}, промахов {}, вытеснений {}",
+                entries.size(), hits, misses, evictions);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private Film lookup(Long filmId) {
+        CachedFilm entry = entries.get(filmId);
+        if (entry != null) {
+            if (System.currentTimeMillis() - entry.loadedAt < ttlMillis) {
+                hits++;
+                return entry.film;
+            }
+            entries.remove(filmId);
+            evictions++;
+        }
+        misses++;
+        return null;
+    }
+
+    private static class CachedFilm {
+        private final Film film;
+        private final long loadedAt;
+
+        private CachedFilm(Film film, long loadedAt) {
+            this.film = film;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
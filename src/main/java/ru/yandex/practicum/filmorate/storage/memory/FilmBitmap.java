@@ -0,0 +1,299 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import java.util.Arrays;
+
+/**
+ * Сжатое множество неотрицательных int по схеме roaring: значения делятся на блоки по старшим
+ * 16 битам, разреженный блок хранится отсортированным массивом младших битов, плотный
+ * (больше {@value #ARRAY_LIMIT} значений) - битовой картой на 65536 бит. Класс не потокобезопасен.
+ */
+public final class FilmBitmap {
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    private int[] keys = new int[0];
+    private Container[] containers = new Container[0];
+    private int cardinality;
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean contains(int value) {
+        int index = Arrays.binarySearch(keys, value >>> 16);
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    public boolean add(int value) {
+        int key = value >>> 16;
+        int index = Arrays.binarySearch(keys, key);
+        if (index < 0) {
+            index = -index - 1;
+            keys = insert(keys, index, key);
+            Container[] grown = new Container[containers.length + 1];
+            System.arraycopy(containers, 0, grown, 0, index);
+            System.arraycopy(containers, index, grown, index + 1, containers.length - index);
+            grown[index] = new ArrayContainer();
+            containers = grown;
+        }
+
+        Container container = containers[index];
+        if (container.contains((char) value)) {
+            return false;
+        }
+        containers[index] = container.add((char) value);
+        cardinality++;
+        return true;
+    }
+
+    public boolean remove(int value) {
+        int index = Arrays.binarySearch(keys, value >>> 16);
+        if (index < 0 || !containers[index].contains((char) value)) {
+            return false;
+        }
+        Container container = containers[index].remove((char) value);
+        cardinality--;
+        if (container.cardinality() == 0) {
+            int[] shrunkKeys = new int[keys.length - 1];
+            Container[] shrunk = new Container[containers.length - 1];
+            System.arraycopy(keys, 0, shrunkKeys, 0, index);
+            System.arraycopy(keys, index + 1, shrunkKeys, index, keys.length - index - 1);
+            System.arraycopy(containers, 0, shrunk, 0, index);
+            System.arraycopy(containers, index + 1, shrunk, index, containers.length - index - 1);
+            keys = shrunkKeys;
+            containers = shrunk;
+        } else {
+            containers[index] = container;
+        }
+        return true;
+    }
+
+    /**
+     * Возвращает новое множество - пересечение с other.
+     */
+    public FilmBitmap and(FilmBitmap other) {
+        FilmBitmap result = new FilmBitmap();
+        int[] resultKeys = new int[Math.min(keys.length, other.keys.length)];
+        Container[] resultContainers = new Container[resultKeys.length];
+        int size = 0;
+
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container container = containers[i].and(other.containers[j]);
+                if (container.cardinality() > 0) {
+                    resultKeys[size] = keys[i];
+                    resultContainers[size++] = container;
+                    result.cardinality += container.cardinality();
+                }
+                i++;
+                j++;
+            }
+        }
+
+        result.keys = Arrays.copyOf(resultKeys, size);
+        result.containers = Arrays.copyOf(resultContainers, size);
+        return result;
+    }
+
+    public FilmBitmap copy() {
+        return and(this);
+    }
+
+    /**
+     * Значения множества по возрастанию.
+     */
+    public int[] toArray() {
+        int[] values = new int[cardinality];
+        int size = 0;
+        for (int i = 0; i < keys.length; i++) {
+            size = containers[i].copyTo(keys[i] << 16, values, size);
+        }
+        return values;
+    }
+
+    private static int[] insert(int[] array, int index, int value) {
+        int[] result = new int[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        return result;
+    }
+
+    private interface Container {
+        int cardinality();
+
+        boolean contains(char value);
+
+        /**
+         * Возвращает контейнер с добавленным значением, при переполнении - другого вида.
+         */
+        Container add(char value);
+
+        Container remove(char value);
+
+        Container and(Container other);
+
+        int copyTo(int high, int[] values, int offset);
+    }
+
+    private static final class ArrayContainer implements Container {
+        private char[] values;
+        private int size;
+
+        private ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        private ArrayContainer(char[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        public int cardinality() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        @Override
+        public Container add(char value) {
+            if (size == ARRAY_LIMIT) {
+                return new BitmapContainer(this).add(value);
+            }
+            int index = -Arrays.binarySearch(values, 0, size, value) - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, Math.max(4, size * 2)));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+            return this;
+        }
+
+        @Override
+        public Container remove(char value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            return this;
+        }
+
+        @Override
+        public Container and(Container other) {
+            char[] result = new char[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (other.contains(values[i])) {
+                    result[count++] = values[i];
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        public int copyTo(int high, int[] target, int offset) {
+            for (int i = 0; i < size; i++) {
+                target[offset++] = high | values[i];
+            }
+            return offset;
+        }
+    }
+
+    private static final class BitmapContainer implements Container {
+        private final long[] words;
+        private int size;
+
+        private BitmapContainer(long[] words, int size) {
+            this.words = words;
+            this.size = size;
+        }
+
+        private BitmapContainer(ArrayContainer array) {
+            this(new long[BITMAP_WORDS], 0);
+            for (int i = 0; i < array.size; i++) {
+                add(array.values[i]);
+            }
+        }
+
+        @Override
+        public int cardinality() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        public Container add(char value) {
+            words[value >>> 6] |= 1L << value;
+            size++;
+            return this;
+        }
+
+        @Override
+        public Container remove(char value) {
+            words[value >>> 6] &= ~(1L << value);
+            size--;
+            if (size > ARRAY_LIMIT) {
+                return this;
+            }
+            char[] values = new char[size];
+            copyTo(0, values);
+            return new ArrayContainer(values, size);
+        }
+
+        @Override
+        public Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            long[] result = new long[BITMAP_WORDS];
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result[i] = words[i] & otherWords[i];
+                count += Long.bitCount(result[i]);
+            }
+            if (count > ARRAY_LIMIT) {
+                return new BitmapContainer(result, count);
+            }
+            char[] values = new char[count];
+            new BitmapContainer(result, count).copyTo(0, values);
+            return new ArrayContainer(values, count);
+        }
+
+        @Override
+        public int copyTo(int high, int[] target, int offset) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    target[offset++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return offset;
+        }
+
+        private void copyTo(int offset, char[] target) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    target[offset++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+}
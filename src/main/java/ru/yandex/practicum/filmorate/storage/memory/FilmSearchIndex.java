@@ -0,0 +1,294 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Инвертированный индекс по названиям фильмов и именам режиссеров для поиска по подстроке.
+ * Тексты приводятся к нижнему регистру и раскладываются на триграммы; кандидаты находятся
+ * пересечением списков триграмм запроса и затем проверяются на вхождение подстроки.
+ */
+@Component
+@Slf4j
+public class FilmSearchIndex {
+    private static final int GRAM = 3;
+
+    private final FilmStorage filmStorage;
+    private final DirectorStorage directorStorage;
+    private final PopularityIndex popularityIndex;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, String> titles = new HashMap<>();
+    private final Map<Long, String> displayTitles = new HashMap<>();
+    private final Map<String, Set<Long>> titleGrams = new HashMap<>();
+    private final Map<Long, String> directorNames = new HashMap<>();
+    private final Map<Long, String> displayDirectorNames = new HashMap<>();
+    private final Map<String, Set<Long>> directorGrams = new HashMap<>();
+    private final Map<Long, Set<Long>> filmsByDirector = new HashMap<>();
+    private final Map<Long, Set<Long>> directorsByFilm = new HashMap<>();
+    private volatile boolean ready;
+    private volatile long version;
+
+    public FilmSearchIndex(FilmStorage filmStorage, DirectorStorage directorStorage, PopularityIndex popularityIndex) {
+        this.filmStorage = filmStorage;
+        this.directorStorage = directorStorage;
+        this.popularityIndex = popularityIndex;
+    }
+
+    @PostConstruct
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            titles.clear();
+            displayTitles.clear();
+            titleGrams.clear();
+            directorNames.clear();
+            displayDirectorNames.clear();
+            directorGrams.clear();
+            filmsByDirector.clear();
+            directorsByFilm.clear();
+
+            directorStorage.findAll().forEach(this::indexDirector);
+            filmStorage.streamAllFilms(this::indexFilm);
+
+            ready = true;
+            version++;
+            log.info("Построен поисковый индекс: {} фильмов, {} режиссеров", titles.size(), directorNames.size());
+        } catch (DataAccessException e) {
+            ready = false;
+            log.error("Не удалось построить поисковый индекс, используется запрос к базе", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Номер версии индекса, увеличивается при каждом изменении.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<Long, String> getTitles() {
+        lock.readLock().lock();
+        try {
+            return new HashMap<>(displayTitles);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Map<Long, String> getDirectorNames() {
+        lock.readLock().lock();
+        try {
+            return new HashMap<>(displayDirectorNames);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Map<Long, Set<Long>> getFilmsByDirector() {
+        lock.readLock().lock();
+        try {
+            Map<Long, Set<Long>> copy = new HashMap<>();
+            filmsByDirector.forEach((directorId, filmIds) -> copy.put(directorId, new HashSet<>(filmIds)));
+            return copy;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Возвращает идентификаторы фильмов, упорядоченные по числу лайков.
+     */
+    public List<Long> search(String query, boolean byTitle, boolean byDirector) {
+        String needle = normalize(query);
+        Set<Long> found = new HashSet<>();
+
+        lock.readLock().lock();
+        try {
+            if (byTitle) {
+                found.addAll(match(needle, titles, titleGrams));
+            }
+            if (byDirector) {
+                for (Long directorId : match(needle, directorNames, directorGrams)) {
+                    found.addAll(filmsByDirector.getOrDefault(directorId, Set.of()));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Long> filmIds = new ArrayList<>(found);
+        popularityIndex.sortByLikes(filmIds);
+        return filmIds;
+    }
+
+    public void putFilm(Film film) {
+        lock.writeLock().lock();
+        try {
+            unindexFilm(film.getId());
+            indexFilm(film);
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeFilm(Long filmId) {
+        lock.writeLock().lock();
+        try {
+            unindexFilm(filmId);
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void putDirector(Director director) {
+        lock.writeLock().lock();
+        try {
+            indexDirector(director);
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeDirector(Long directorId) {
+        lock.writeLock().lock();
+        try {
+            String name = directorNames.remove(directorId);
+            if (name != null) {
+                removePostings(directorGrams, name, directorId);
+            }
+            for (Long filmId : filmsByDirector.getOrDefault(directorId, Set.of())) {
+                Set<Long> directors = directorsByFilm.get(filmId);
+                if (directors != null) {
+                    directors.remove(directorId);
+                }
+            }
+            filmsByDirector.remove(directorId);
+            displayDirectorNames.remove(directorId);
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Set<Long> match(String needle, Map<Long, String> texts, Map<String, Set<Long>> grams) {
+        Set<Long> matched = new HashSet<>();
+
+        if (needle.length() < GRAM) {
+            texts.forEach((id, text) -> {
+                if (text.contains(needle)) {
+                    matched.add(id);
+                }
+            });
+            return matched;
+        }
+
+        List<Set<Long>> postings = new ArrayList<>();
+        for (String gram : grams(needle)) {
+            Set<Long> posting = grams.get(gram);
+            if (posting == null) {
+                return matched;
+            }
+            postings.add(posting);
+        }
+        postings.sort(Comparator.comparingInt(Set::size));
+
+        for (Long id : postings.get(0)) {
+            String text = texts.get(id);
+            if (text != null && text.contains(needle)) {
+                matched.add(id);
+            }
+        }
+        return matched;
+    }
+
+    private void indexFilm(Film film) {
+        String title = normalize(film.getName());
+        titles.put(film.getId(), title);
+        displayTitles.put(film.getId(), film.getName());
+        addPostings(titleGrams, title, film.getId());
+
+        Set<Long> directors = new HashSet<>();
+        if (film.getDirectors() != null) {
+            for (Director director : film.getDirectors()) {
+                directors.add(director.getId());
+                filmsByDirector.computeIfAbsent(director.getId(), id -> new HashSet<>()).add(film.getId());
+            }
+        }
+        directorsByFilm.put(film.getId(), directors);
+    }
+
+    private void unindexFilm(Long filmId) {
+        String title = titles.remove(filmId);
+        displayTitles.remove(filmId);
+        if (title != null) {
+            removePostings(titleGrams, title, filmId);
+        }
+        for (Long directorId : directorsByFilm.getOrDefault(filmId, Set.of())) {
+            Set<Long> films = filmsByDirector.get(directorId);
+            if (films != null) {
+                films.remove(filmId);
+            }
+        }
+        directorsByFilm.remove(filmId);
+    }
+
+    private void indexDirector(Director director) {
+        String previous = directorNames.get(director.getId());
+        if (previous != null) {
+            removePostings(directorGrams, previous, director.getId());
+        }
+        String name = normalize(director.getName());
+        directorNames.put(director.getId(), name);
+        displayDirectorNames.put(director.getId(), director.getName());
+        addPostings(directorGrams, name, director.getId());
+    }
+
+    private static void addPostings(Map<String, Set<Long>> grams, String text, Long id) {
+        for (String gram : grams(text)) {
+            grams.computeIfAbsent(gram, key -> new HashSet<>()).add(id);
+        }
+    }
+
+    private static void removePostings(Map<String, Set<Long>> grams, String text, Long id) {
+        for (String gram : grams(text)) {
+            Set<Long> posting = grams.get(gram);
+            if (posting != null) {
+                posting.remove(id);
+                if (posting.isEmpty()) {
+                    grams.remove(gram);
+                }
+            }
+        }
+    }
+
+    private static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+}
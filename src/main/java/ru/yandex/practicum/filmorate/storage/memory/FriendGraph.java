@@ -0,0 +1,219 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Граф дружбы в памяти: для каждого пользователя отсортированные массивы идентификаторов друзей
+ * и тех, кто добавил его в друзья.
+ * Массивы не изменяются после публикации - при добавлении или удалении друга создается новая
+ * копия, поэтому чтение идет без блокировок, а изменения упорядочены монитором графа.
+ */
+@Component
+@Slf4j
+public class FriendGraph {
+    private static final long[] EMPTY = new long[0];
+
+    private final UserStorage userStorage;
+    private volatile Map<Long, long[]> friends = new ConcurrentHashMap<>();
+    private volatile Map<Long, long[]> followers = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+    private volatile long version;
+
+    public FriendGraph(UserStorage userStorage) {
+        this.userStorage = userStorage;
+    }
+
+    @PostConstruct
+    public synchronized void rebuild() {
+        try {
+            Map<Long, long[]> loadedFriends = new HashMap<>();
+            Map<Long, long[]> loadedFollowers = new HashMap<>();
+            userStorage.streamFriendEdges((userId, friendId) -> {
+                append(loadedFriends, userId, friendId);
+                append(loadedFollowers, friendId, userId);
+            });
+
+            friends = compact(loadedFriends);
+            followers = compact(loadedFollowers);
+            ready = true;
+            version++;
+            log.info("Построен граф дружбы: {} пользователей с друзьями", friends.size());
+        } catch (DataAccessException e) {
+            ready = false;
+            log.error("Не удалось построить граф дружбы, используются запросы к базе", e);
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Номер версии графа, увеличивается при каждом изменении.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Отсортированные идентификаторы друзей. Возвращаемый массив нельзя изменять.
+     */
+    public long[] getFriends(Long userId) {
+        return friends.getOrDefault(userId, EMPTY);
+    }
+
+    public boolean isFriend(Long userId, Long friendId) {
+        return Arrays.binarySearch(getFriends(userId), friendId) >= 0;
+    }
+
+    /**
+     * Общие друзья двух пользователей слиянием их отсортированных списков.
+     */
+    public long[] getMutualFriends(Long userId, Long otherId) {
+        long[] first = getFriends(userId);
+        long[] second = getFriends(otherId);
+        long[] mutual = new long[Math.min(first.length, second.length)];
+        int size = 0;
+
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                mutual[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(mutual, size);
+    }
+
+    /**
+     * Отсортированные идентификаторы пользователей, добавивших userId в друзья.
+     * Возвращаемый массив нельзя изменять.
+     */
+    public long[] getFollowers(Long userId) {
+        return followers.getOrDefault(userId, EMPTY);
+    }
+
+    /**
+     * Передает списки друзей и подписчиков всех пользователей, у которых они есть.
+     */
+    public void forEachUser(AdjacencyConsumer consumer) {
+        Map<Long, long[]> currentFriends = friends;
+        Map<Long, long[]> currentFollowers = followers;
+        Set<Long> userIds = new HashSet<>(currentFriends.keySet());
+        userIds.addAll(currentFollowers.keySet());
+        for (Long userId : userIds) {
+            consumer.accept(userId, currentFriends.getOrDefault(userId, EMPTY),
+                    currentFollowers.getOrDefault(userId, EMPTY));
+        }
+    }
+
+    public synchronized void addFriend(Long userId, Long friendId) {
+        if (insert(friends, userId, friendId)) {
+            insert(followers, friendId, userId);
+            version++;
+        }
+    }
+
+    public synchronized void removeFriend(Long userId, Long friendId) {
+        if (remove(friends, userId, friendId)) {
+            remove(followers, friendId, userId);
+            version++;
+        }
+    }
+
+    /**
+     * Удаляет пользователя вместе со всеми ребрами, которые на него указывают.
+     */
+    public synchronized void removeUser(Long userId) {
+        for (long friendId : getFriends(userId)) {
+            remove(followers, friendId, userId);
+        }
+        for (long followerId : getFollowers(userId)) {
+            remove(friends, followerId, userId);
+        }
+        friends.remove(userId);
+        followers.remove(userId);
+        version++;
+    }
+
+    private static boolean insert(Map<Long, long[]> lists, Long key, long value) {
+        long[] list = lists.getOrDefault(key, EMPTY);
+        int position = Arrays.binarySearch(list, value);
+        if (position >= 0) {
+            return false;
+        }
+        position = -position - 1;
+
+        long[] updated = new long[list.length + 1];
+        System.arraycopy(list, 0, updated, 0, position);
+        updated[position] = value;
+        System.arraycopy(list, position, updated, position + 1, list.length - position);
+        lists.put(key, updated);
+        return true;
+    }
+
+    private static boolean remove(Map<Long, long[]> lists, Long key, long value) {
+        long[] list = lists.getOrDefault(key, EMPTY);
+        int position = Arrays.binarySearch(list, value);
+        if (position < 0) {
+            return false;
+        }
+
+        if (list.length == 1) {
+            lists.remove(key);
+        } else {
+            long[] updated = new long[list.length - 1];
+            System.arraycopy(list, 0, updated, 0, position);
+            System.arraycopy(list, position + 1, updated, position, list.length - position - 1);
+            lists.put(key, updated);
+        }
+        return true;
+    }
+
+    /**
+     * Добавляет значение в список построения. Первый элемент массива хранит число занятых ячеек.
+     */
+    private static void append(Map<Long, long[]> lists, Long key, long value) {
+        long[] list = lists.get(key);
+        if (list == null) {
+            list = new long[4];
+            lists.put(key, list);
+        }
+        int size = (int) list[0] + 1;
+        if (size == list.length) {
+            list = Arrays.copyOf(list, size * 2);
+            lists.put(key, list);
+        }
+        list[size] = value;
+        list[0] = size;
+    }
+
+    private static Map<Long, long[]> compact(Map<Long, long[]> lists) {
+        Map<Long, long[]> compacted = new ConcurrentHashMap<>();
+        lists.forEach((key, list) ->
+                compacted.put(key, Arrays.stream(list, 1, (int) list[0] + 1).sorted().distinct().toArray()));
+        return compacted;
+    }
+
+    @FunctionalInterface
+    public interface AdjacencyConsumer {
+        void accept(long userId, long[] friends, long[] followers);
+    }
+}
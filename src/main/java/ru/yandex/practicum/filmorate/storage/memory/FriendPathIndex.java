@@ -0,0 +1,219 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Поиск кратчайшей цепочки дружбы двунаправленным обходом в ширину: вперед по спискам
+ * друзей от первого пользователя и назад по подписчикам от второго. Обход идет по компактной
+ * копии графа с плотными int-индексами вершин. Копию пересобирает планировщик раз в refresh-ms,
+ * если {@link FriendGraph} с тех пор менялся, а запросы только читают последнюю готовую копию.
+ */
+@Component
+@Slf4j
+public class FriendPathIndex {
+    private static final int MISSING = -1;
+
+    private final FriendGraph friendGraph;
+    private volatile Snapshot snapshot;
+
+    public FriendPathIndex(FriendGraph friendGraph) {
+        this.friendGraph = friendGraph;
+    }
+
+    @PostConstruct
+    @Scheduled(
+            initialDelayString = "${filmorate.friends.path.refresh-ms:1000}",
+            fixedDelayString = "${filmorate.friends.path.refresh-ms:1000}"
+    )
+    public synchronized void refresh() {
+        Snapshot graph = snapshot;
+        if (graph != null && graph.version == friendGraph.getVersion()) {
+            return;
+        }
+        rebuild();
+    }
+
+    private void rebuild() {
+        long version = friendGraph.getVersion();
+        LongIntHashMap indexes = new LongIntHashMap(1024, MISSING);
+        List<Long> userIds = new ArrayList<>();
+        List<long[]> outLists = new ArrayList<>();
+        List<long[]> inLists = new ArrayList<>();
+        friendGraph.forEachUser((userId, friends, followers) -> {
+            indexes.put(userId, userIds.size());
+            userIds.add(userId);
+            outLists.add(friends);
+            inLists.add(followers);
+        });
+
+        int size = userIds.size();
+        int[] outOffsets = new int[size + 1];
+        int[] inOffsets = new int[size + 1];
+        int[] outTargets = flatten(outLists, outOffsets, indexes);
+        int[] inTargets = flatten(inLists, inOffsets, indexes);
+        snapshot = new Snapshot(version, indexes,
+                userIds.stream().mapToLong(Long::longValue).toArray(), outOffsets, outTargets, inOffsets, inTargets);
+        log.debug("Построена копия графа дружбы для поиска цепочек: {} вершин, {} ребер", size, outTargets.length);
+    }
+
+    /**
+     * Возвращает идентификаторы пользователей цепочки от fromId до toId включительно
+     * или пустой список, если цепочки длиной не больше maxDepth нет.
+     */
+    public List<Long> findPath(long fromId, long toId, int maxDepth) {
+        if (fromId == toId) {
+            return new ArrayList<>(List.of(fromId));
+        }
+
+        Snapshot graph = snapshot;
+        int from = graph.indexes.get(fromId);
+        int to = graph.indexes.get(toId);
+        if (from == MISSING || to == MISSING) {
+            return new ArrayList<>();
+        }
+
+        LongIntHashMap forwardParents = new LongIntHashMap(64, MISSING);
+        LongIntHashMap backwardParents = new LongIntHashMap(64, MISSING);
+        forwardParents.put(from, from);
+        backwardParents.put(to, to);
+        int[] forwardFrontier = {from};
+        int[] backwardFrontier = {to};
+        int depth = 0;
+
+        while (depth < maxDepth && forwardFrontier.length > 0 && backwardFrontier.length > 0) {
+            boolean forward = forwardFrontier.length <= backwardFrontier.length;
+            Expansion expansion = forward
+                    ? expand(forwardFrontier, graph.outOffsets, graph.outTargets, forwardParents, backwardParents)
+                    : expand(backwardFrontier, graph.inOffsets, graph.inTargets, backwardParents, forwardParents);
+            depth++;
+
+            if (expansion.meeting != MISSING) {
+                return toUserIds(graph, expansion.meeting, forwardParents, backwardParents);
+            }
+            if (forward) {
+                forwardFrontier = expansion.frontier;
+            } else {
+                backwardFrontier = expansion.frontier;
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Раскрывает один уровень обхода. Среди встреч с другой стороной выбирается вершина,
+     * ближайшая к другому концу, чтобы цепочка была кратчайшей.
+     */
+    private static Expansion expand(int[] frontier, int[] offsets, int[] targets,
+                                    LongIntHashMap parents, LongIntHashMap otherParents) {
+        int[] next = new int[16];
+        int size = 0;
+        int meeting = MISSING;
+        int meetingDistance = Integer.MAX_VALUE;
+
+        for (int node : frontier) {
+            for (int k = offsets[node]; k < offsets[node + 1]; k++) {
+                int neighbour = targets[k];
+                if (parents.containsKey(neighbour)) {
+                    continue;
+                }
+                parents.put(neighbour, node);
+
+                if (otherParents.containsKey(neighbour)) {
+                    int distance = distance(neighbour, otherParents);
+                    if (distance < meetingDistance) {
+                        meeting = neighbour;
+                        meetingDistance = distance;
+                    }
+                }
+                if (size == next.length) {
+                    next = Arrays.copyOf(next, size * 2);
+                }
+                next[size++] = neighbour;
+            }
+        }
+        return new Expansion(Arrays.copyOf(next, size), meeting);
+    }
+
+    private static int distance(int node, LongIntHashMap parents) {
+        int distance = 0;
+        for (int current = node; parents.get(current) != current; current = parents.get(current)) {
+            distance++;
+        }
+        return distance;
+    }
+
+    private static List<Long> toUserIds(Snapshot graph, int meeting,
+                                        LongIntHashMap forwardParents, LongIntHashMap backwardParents) {
+        List<Long> path = new ArrayList<>();
+        for (int node = meeting; ; node = forwardParents.get(node)) {
+            path.add(graph.userIds[node]);
+            if (forwardParents.get(node) == node) {
+                break;
+            }
+        }
+        Collections.reverse(path);
+        for (int node = meeting; backwardParents.get(node) != node; ) {
+            node = backwardParents.get(node);
+            path.add(graph.userIds[node]);
+        }
+        return path;
+    }
+
+    /**
+     * Переводит списки идентификаторов в общий массив индексов. Вершины, появившиеся в графе
+     * во время построения копии, пропускаются.
+     */
+    private static int[] flatten(List<long[]> lists, int[] offsets, LongIntHashMap indexes) {
+        int[] targets = new int[lists.stream().mapToInt(list -> list.length).sum()];
+        int position = 0;
+        for (int i = 0; i < lists.size(); i++) {
+            for (long userId : lists.get(i)) {
+                int index = indexes.get(userId);
+                if (index != MISSING) {
+                    targets[position++] = index;
+                }
+            }
+            offsets[i + 1] = position;
+        }
+        return Arrays.copyOf(targets, position);
+    }
+
+    private static class Expansion {
+        private final int[] frontier;
+        private final int meeting;
+
+        private Expansion(int[] frontier, int meeting) {
+            this.frontier = frontier;
+            this.meeting = meeting;
+        }
+    }
+
+    private static class Snapshot {
+        private final long version;
+        private final LongIntHashMap indexes;
+        private final long[] userIds;
+        private final int[] outOffsets;
+        private final int[] outTargets;
+        private final int[] inOffsets;
+        private final int[] inTargets;
+
+        private Snapshot(long version, LongIntHashMap indexes, long[] userIds,
+                         int[] outOffsets, int[] outTargets, int[] inOffsets, int[] inTargets) {
+            this.version = version;
+            this.indexes = indexes;
+            this.userIds = userIds;
+            this.outOffsets = outOffsets;
+            this.outTargets = outTargets;
+            this.inOffsets = inOffsets;
+            this.inTargets = inTargets;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Рекомендации друзей: пользователи ранжируются по числу общих друзей с вызывающим.
+ * Кандидаты собираются за два шага по графу - друзья пользователя и те, кто добавил их
+ * в друзья, - с ограничением на число просмотренных ребер. Результат кешируется для
+ * каждого пользователя и сбрасывается при изменении дружбы, от которой он зависит.
+ */
+@Component
+public class FriendSuggestions {
+    private static final Comparator<Candidate> WORST_FIRST = Comparator
+            .comparingInt((Candidate candidate) -> candidate.mutualFriends)
+            .thenComparing(candidate -> candidate.userId, Comparator.reverseOrder());
+
+    private final FriendGraph friendGraph;
+    private final int maxLimit;
+    private final int maxExpansion;
+    private final int cacheSize;
+    private final Map<Long, long[]> cache = new ConcurrentHashMap<>();
+    private long generation;
+
+    public FriendSuggestions(FriendGraph friendGraph,
+                             @Value("${filmorate.friends.suggestions.max-limit:50}") int maxLimit,
+                             @Value("${filmorate.friends.suggestions.max-expansion:100000}") int maxExpansion,
+                             @Value("${filmorate.friends.suggestions.cache-size:10000}") int cacheSize) {
+        this.friendGraph = friendGraph;
+        this.maxLimit = maxLimit;
+        this.maxExpansion = maxExpansion;
+        this.cacheSize = cacheSize;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Возвращает до limit идентификаторов пользователей по убыванию числа общих друзей.
+     */
+    public List<Long> suggest(Long userId, int limit) {
+        long[] ranked = cache.get(userId);
+        if (ranked == null) {
+            long rankGeneration;
+            synchronized (this) {
+                rankGeneration = generation;
+            }
+            ranked = rank(userId);
+            synchronized (this) {
+                // пока шло ранжирование, дружбу могли изменить - такой результат не сохраняем
+                if (rankGeneration == generation) {
+                    if (cache.size() >= cacheSize) {
+                        cache.clear();
+                    }
+                    cache.put(userId, ranked);
+                }
+            }
+        }
+
+        int size = Math.min(limit, ranked.length);
+        List<Long> userIds = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            userIds.add(ranked[i]);
+        }
+        return userIds;
+    }
+
+    /**
+     * Сбрасывает результаты, на которые влияет ребро userId -> friendId: самого пользователя
+     * и всех, у кого friendId в друзьях.
+     */
+    public synchronized void invalidate(Long userId, Long friendId) {
+        generation++;
+        cache.remove(userId);
+        for (long followerId : friendGraph.getFollowers(friendId)) {
+            cache.remove(followerId);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        cache.clear();
+    }
+
+    private long[] rank(Long userId) {
+        long[] friends = friendGraph.getFriends(userId);
+        LongIntHashMap mutualCounts = new LongIntHashMap(Math.max(16, friends.length * 4), 0);
+        int expanded = 0;
+
+        expansion:
+        for (long friendId : friends) {
+            for (long candidateId : friendGraph.getFollowers(friendId)) {
+                if (expanded++ >= maxExpansion) {
+                    break expansion;
+                }
+                if (candidateId != userId && Arrays.binarySearch(friends, candidateId) < 0) {
+                    mutualCounts.put(candidateId, mutualCounts.get(candidateId) + 1);
+                }
+            }
+        }
+
+        PriorityQueue<Candidate> top = new PriorityQueue<>(maxLimit, WORST_FIRST);
+        mutualCounts.forEach((candidateId, mutualFriends) -> {
+            Candidate candidate = new Candidate(candidateId, mutualFriends);
+            if (top.size() < maxLimit) {
+                top.add(candidate);
+            } else if (WORST_FIRST.compare(candidate, top.peek()) > 0) {
+                top.poll();
+                top.add(candidate);
+            }
+        });
+
+        long[] ranked = new long[top.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = top.poll().userId;
+        }
+        return ranked;
+    }
+
+    private static class Candidate {
+        private final long userId;
+        private final int mutualFriends;
+
+        private Candidate(long userId, int mutualFriends) {
+            this.userId = userId;
+            this.mutualFriends = mutualFriends;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.storage.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.db.GenreDbStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+
+/**
+ * Справочник жанров в памяти. Неизменяемый снимок загружается при старте
+ * и целиком подменяется после добавления жанра.
+ */
+@Component
+@Slf4j
+@Primary
+public class GenreDictionary implements GenreStorage {
+    private final GenreDbStorage genreDbStorage;
+    private volatile Snapshot snapshot = new Snapshot(List.of());
+
+    public GenreDictionary(GenreDbStorage genreDbStorage) {
+        this.genreDbStorage = genreDbStorage;
+    }
+
+    @PostConstruct
+    public synchronized void reload() {
+        snapshot = new Snapshot(genreDbStorage.getAllGenres());
+        log.info("Загружен справочник жанров: {} записей", snapshot.all.size());
+    }
+
+    @Override
+    public List<Genre> getAllGenres() {
+        return new ArrayList<>(snapshot.all);
+    }
+
+    @Override
+    public Genre getGenreById(Long id) {
+        Genre[] byId = snapshot.byId;
+        if (id == null || id < 0 || id >= byId.length || byId[id.intValue()] == null) {
+            log.info("Жанр с идентификатором {} не найден.", id);
+            return null;
+        }
+        return byId[id.intValue()];
+    }
+
+    @Override
+    public Long getGenreIdByName(String genreName) {
+        return snapshot.idByName.get(genreName);
+    }
+
+    @Override
+    public synchronized Long addGenre(Genre genre) {
+        Long genreId = getGenreIdByName(genre.getName());
+        if (genreId != null) {
+            return genreId;
+        }
+
+        genreId = genreDbStorage.addGenre(genre);
+        reload();
+        return genreId;
+    }
+
+    @Override
+    public Map<Long, List<Genre>> getGenresByFilmIds(Collection<Long> filmIds) {
+        Map<Long, List<Genre>> genresByFilm = new HashMap<>();
+
+        genreDbStorage.getGenreIdsByFilmIds(filmIds).forEach((filmId, genreIds) -> {
+            List<Genre> genres = new ArrayList<>(genreIds.size());
+            for (Long genreId : genreIds) {
+                Genre genre = getGenreById(genreId);
+                if (genre != null) {
+                    genres.add(genre);
+                }
+            }
+            genresByFilm.put(filmId, genres);
+        });
+
+        return genresByFilm;
+    }
+
+    private static class Snapshot {
+        private final List<Genre> all;
+        private final Genre[] byId;
+        private final Map<String, Long> idByName;
+
+        private Snapshot(List<Genre> genres) {
+            long maxId = genres.stream().mapToLong(Genre::getId).max().orElse(0);
+            Genre[] genresById = new Genre[(int) maxId + 1];
+            Map<String, Long> genreIdByName = new HashMap<>();
+
+            genres.forEach(genre -> {
+                genresById[genre.getId().intValue()] = genre;
+                genreIdByName.put(genre.getName(), genre.getId());
+            });
+
+            this.all = List.copyOf(genres);
+            this.byId = genresById;
+            this.idByName = Map.copyOf(genreIdByName);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Лайкнутые фильмы каждого пользователя в виде сжатых битовых карт по film_id.
+ * Общие фильмы группы пользователей находятся пересечением их карт, начиная с самой маленькой.
+ */
+@Component
+@Slf4j
+public class LikedFilmBitmaps {
+    private final FilmStorage filmStorage;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, FilmBitmap> byUser = new HashMap<>();
+    private volatile boolean ready;
+
+    public LikedFilmBitmaps(FilmStorage filmStorage) {
+        this.filmStorage = filmStorage;
+    }
+
+    @PostConstruct
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            byUser.clear();
+            filmStorage.streamLikes(like -> bitmap(like.getUserId()).add(like.getFilmId().intValue()));
+
+            ready = true;
+            log.info("Построены карты лайков для {} пользователей", byUser.size());
+        } catch (DataAccessException e) {
+            ready = false;
+            log.error("Не удалось построить карты лайков, используется запрос к базе", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Возвращает идентификаторы фильмов, которые лайкнули все перечисленные пользователи.
+     */
+    public List<Long> getCommonFilmIds(Collection<Long> userIds) {
+        lock.readLock().lock();
+        try {
+            List<FilmBitmap> bitmaps = new ArrayList<>(userIds.size());
+            for (Long userId : userIds) {
+                FilmBitmap bitmap = byUser.get(userId);
+                if (bitmap == null) {
+                    return new ArrayList<>();
+                }
+                bitmaps.add(bitmap);
+            }
+            if (bitmaps.isEmpty()) {
+                return new ArrayList<>();
+            }
+            bitmaps.sort(Comparator.comparingInt(FilmBitmap::cardinality));
+
+            FilmBitmap common = bitmaps.get(0);
+            for (int i = 1; i < bitmaps.size() && common.cardinality() > 0; i++) {
+                common = common.and(bitmaps.get(i));
+            }
+
+            int[] values = common.toArray();
+            List<Long> filmIds = new ArrayList<>(values.length);
+            for (int value : values) {
+                filmIds.add((long) value);
+            }
+            return filmIds;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void addLike(Long userId, Long filmId) {
+        lock.writeLock().lock();
+        try {
+            bitmap(userId).add(filmId.intValue());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeLike(Long userId, Long filmId) {
+        lock.writeLock().lock();
+        try {
+            FilmBitmap bitmap = byUser.get(userId);
+            if (bitmap != null) {
+                bitmap.remove(filmId.intValue());
+                if (bitmap.cardinality() == 0) {
+                    byUser.remove(userId);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeUser(Long userId) {
+        lock.writeLock().lock();
+        try {
+            byUser.remove(userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeFilm(Long filmId) {
+        lock.writeLock().lock();
+        try {
+            byUser.values().removeIf(bitmap -> bitmap.remove(filmId.intValue()) && bitmap.cardinality() == 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private FilmBitmap bitmap(Long userId) {
+        return byUser.computeIfAbsent(userId, id -> new FilmBitmap());
+    }
+}
@@ -0,0 +1,58 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.MpaStorage;
+import ru.yandex.practicum.filmorate.storage.db.MpaDbStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Справочник рейтингов MPA в памяти. Загружается один раз при старте,
+ * поиск по идентификатору - обращение к массиву.
+ */
+@Component
+@Slf4j
+@Primary
+public class MpaDictionary implements MpaStorage {
+    private final MpaDbStorage mpaDbStorage;
+    private volatile Mpa[] mpaById = new Mpa[0];
+    private volatile List<Mpa> allMpa = List.of();
+
+    public MpaDictionary(MpaDbStorage mpaDbStorage) {
+        this.mpaDbStorage = mpaDbStorage;
+    }
+
+    @PostConstruct
+    public synchronized void reload() {
+        List<Mpa> loaded = mpaDbStorage.getAllMpa();
+        int maxId = loaded.stream().mapToInt(Mpa::getId).max().orElse(0);
+
+        Mpa[] byId = new Mpa[maxId + 1];
+        loaded.forEach(mpa -> byId[mpa.getId()] = mpa);
+
+        mpaById = byId;
+        allMpa = List.copyOf(loaded);
+        log.info("Загружен справочник рейтингов MPA: {} записей", loaded.size());
+    }
+
+    @Override
+    public List<Mpa> getAllMpa() {
+        return new ArrayList<>(allMpa);
+    }
+
+    @Override
+    public Mpa getMpaById(Integer id) {
+        Mpa[] byId = mpaById;
+        if (id == null || id < 0 || id >= byId.length || byId[id] == null) {
+            log.info("Рейтинг с идентификатором {} не найден.", id);
+            throw new NotFoundException("Рейтинг с идентификатором " + id + " не найден.");
+        }
+        return byId[id];
+    }
+}
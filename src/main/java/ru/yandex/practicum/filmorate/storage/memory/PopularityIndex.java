@@ -0,0 +1,298 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Рейтинг фильмов по числу лайков в памяти: общий и отдельные срезы по жанру, году
+ * и паре жанр+год. Каждый срез - упорядоченное множество, поэтому первые count фильмов
+ * читаются без сортировки, а лайк переставляет фильм только в его срезах.
+ */
+@Component
+@Slf4j
+public class PopularityIndex {
+    private static final Comparator<RankedFilm> BY_LIKES = Comparator
+            .comparingInt((RankedFilm film) -> film.likes).reversed()
+            .thenComparingLong(film -> film.filmId);
+
+    private final FilmStorage filmStorage;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, RankedFilm> films = new HashMap<>();
+    private final NavigableSet<RankedFilm> global = new TreeSet<>(BY_LIKES);
+    private final Map<Long, NavigableSet<RankedFilm>> byGenre = new HashMap<>();
+    private final Map<Integer, NavigableSet<RankedFilm>> byYear = new HashMap<>();
+    private final Map<Long, NavigableSet<RankedFilm>> byGenreAndYear = new HashMap<>();
+    private final Set<Long> likesChanged = new HashSet<>();
+    private volatile boolean ready;
+    private volatile long version;
+
+    public PopularityIndex(FilmStorage filmStorage) {
+        this.filmStorage = filmStorage;
+    }
+
+    @PostConstruct
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            films.clear();
+            global.clear();
+            byGenre.clear();
+            byYear.clear();
+            byGenreAndYear.clear();
+
+            Map<Long, Integer> likeCounts = filmStorage.getLikeCounts();
+            filmStorage.streamAllFilms(film -> add(toRanked(film, likeCounts.getOrDefault(film.getId(), 0))));
+
+            ready = true;
+            log.info("Построен рейтинг популярности: {} фильмов", films.size());
+        } catch (DataAccessException e) {
+            ready = false;
+            log.error("Не удалось построить рейтинг популярности, используется запрос к базе", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Номер версии рейтинга, увеличивается при каждом изменении.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getLikes(Long filmId) {
+        lock.readLock().lock();
+        try {
+            RankedFilm film = films.get(filmId);
+            return film == null ? 0 : film.likes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Лайки нескольких фильмов, прочитанные под одной блокировкой.
+     */
+    public Map<Long, Integer> getLikes(Collection<Long> filmIds) {
+        Map<Long, Integer> likes = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Long filmId : filmIds) {
+                RankedFilm film = films.get(filmId);
+                likes.put(filmId, film == null ? 0 : film.likes);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return likes;
+    }
+
+    /**
+     * Возвращает фильмы, у которых рейтинг менялся с прошлого вызова, с текущим числом лайков
+     * и забывает их. Рассчитан на одного потребителя - {@link SuggestIndex}.
+     */
+    public Map<Long, Integer> drainChangedLikes() {
+        lock.writeLock().lock();
+        try {
+            Map<Long, Integer> changed = new HashMap<>();
+            for (Long filmId : likesChanged) {
+                RankedFilm film = films.get(filmId);
+                changed.put(filmId, film == null ? 0 : film.likes);
+            }
+            likesChanged.clear();
+            return changed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Сортирует фильмы по убыванию лайков, при равенстве - по id. Лайки читаются один раз
+     * под одной блокировкой, а не при каждом сравнении.
+     */
+    public void sortByLikes(List<Long> filmIds) {
+        Map<Long, Integer> likes = getLikes(filmIds);
+        filmIds.sort(Comparator.comparingInt((Long filmId) -> likes.get(filmId)).reversed()
+                .thenComparingLong(Long::longValue));
+    }
+
+    public List<Long> getTop(int count, Integer genreId, Integer year) {
+        lock.readLock().lock();
+        try {
+            NavigableSet<RankedFilm> shard;
+            if (genreId != null && year != null) {
+                shard = byGenreAndYear.get(genreYearKey(genreId, year));
+            } else if (genreId != null) {
+                shard = byGenre.get(genreId.longValue());
+            } else if (year != null) {
+                shard = byYear.get(year);
+            } else {
+                shard = global;
+            }
+
+            List<Long> filmIds = new ArrayList<>(Math.max(0, count));
+            if (shard == null) {
+                return filmIds;
+            }
+            for (RankedFilm film : shard) {
+                if (filmIds.size() >= count) {
+                    break;
+                }
+                filmIds.add(film.filmId);
+            }
+            return filmIds;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Добавляет фильм или обновляет его жанры и год, сохраняя набранные лайки.
+     */
+    public void putFilm(Film film) {
+        lock.writeLock().lock();
+        try {
+            RankedFilm previous = films.get(film.getId());
+            int likes = previous == null ? 0 : previous.likes;
+            if (previous != null) {
+                remove(previous);
+            }
+            add(toRanked(film, likes));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeFilm(Long filmId) {
+        lock.writeLock().lock();
+        try {
+            RankedFilm previous = films.get(filmId);
+            if (previous != null) {
+                remove(previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void changeLikes(Long filmId, int delta) {
+        lock.writeLock().lock();
+        try {
+            RankedFilm previous = films.get(filmId);
+            if (previous == null) {
+                return;
+            }
+            remove(previous);
+            add(new RankedFilm(previous.filmId, Math.max(0, previous.likes + delta), previous.year, previous.genreIds));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Приводит лайки фильмов к переданным счетчикам из базы. Возвращает число исправленных фильмов.
+     */
+    public int syncLikes(Map<Long, Integer> likeCounts) {
+        lock.writeLock().lock();
+        try {
+            int fixed = 0;
+            for (Map.Entry<Long, Integer> entry : likeCounts.entrySet()) {
+                RankedFilm previous = films.get(entry.getKey());
+                if (previous == null || previous.likes == entry.getValue()) {
+                    continue;
+                }
+                remove(previous);
+                add(new RankedFilm(previous.filmId, entry.getValue(), previous.year, previous.genreIds));
+                fixed++;
+            }
+            return fixed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(RankedFilm film) {
+        version++;
+        likesChanged.add(film.filmId);
+        films.put(film.filmId, film);
+        global.add(film);
+        if (film.year != null) {
+            byYear.computeIfAbsent(film.year, key -> new TreeSet<>(BY_LIKES)).add(film);
+        }
+        for (long genreId : film.genreIds) {
+            byGenre.computeIfAbsent(genreId, key -> new TreeSet<>(BY_LIKES)).add(film);
+            if (film.year != null) {
+                byGenreAndYear.computeIfAbsent(genreYearKey(genreId, film.year), key -> new TreeSet<>(BY_LIKES))
+                        .add(film);
+            }
+        }
+    }
+
+    private void remove(RankedFilm film) {
+        likesChanged.add(film.filmId);
+        films.remove(film.filmId);
+        global.remove(film);
+        if (film.year != null) {
+            removeFromShard(byYear, film.year, film);
+        }
+        for (long genreId : film.genreIds) {
+            removeFromShard(byGenre, genreId, film);
+            if (film.year != null) {
+                removeFromShard(byGenreAndYear, genreYearKey(genreId, film.year), film);
+            }
+        }
+    }
+
+    private <K> void removeFromShard(Map<K, NavigableSet<RankedFilm>> shards, K key, RankedFilm film) {
+        NavigableSet<RankedFilm> shard = shards.get(key);
+        if (shard != null) {
+            shard.remove(film);
+            if (shard.isEmpty()) {
+                shards.remove(key);
+            }
+        }
+    }
+
+    private static long genreYearKey(long genreId, int year) {
+        return (genreId << 32) | (year & 0xffffffffL);
+    }
+
+    private static RankedFilm toRanked(Film film, int likes) {
+        Integer year = film.getReleaseDate() == null ? null : film.getReleaseDate().getYear();
+        long[] genreIds = film.getGenres() == null ? new long[0] : film.getGenres().stream()
+                .map(Genre::getId)
+                .filter(Objects::nonNull)
+                .mapToLong(Long::longValue)
+                .distinct()
+                .toArray();
+
+        return new RankedFilm(film.getId(), likes, year, genreIds);
+    }
+
+    private static class RankedFilm {
+        private final long filmId;
+        private final int likes;
+        private final Integer year;
+        private final long[] genreIds;
+
+        private RankedFilm(long filmId, int likes, Integer year, long[] genreIds) {
+            this.filmId = filmId;
+            this.likes = likes;
+            this.year = year;
+            this.genreIds = genreIds;
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Recommendation;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Модель рекомендаций "фильм-фильм" по совместным лайкам.
+ * Фильмы и пользователи переводятся в плотные индексы, для каждого фильма хранится
+ * отсортированный список соседей и число пользователей, лайкнувших оба фильма.
+ * Близость считается косинусной мерой, кандидаты для пользователя оцениваются
+ * суммой близостей к его лайкам. Лайки применяются к модели по одному за O(число лайков
+ * пользователя), полная пересборка нужна только если часть изменений была потеряна.
+ */
+@Component
+@Slf4j
+public class RecommendationModel {
+    private static final int MISSING = -1;
+    private static final int[] EMPTY = new int[0];
+
+    private final FilmStorage filmStorage;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private State state = new State(new LongIntHashMap(0, MISSING), new LongIntHashMap(0, MISSING),
+            new long[0], new long[0], new int[0][], new int[0][], new int[0][], new int[0]);
+    /**
+     * Изменения лайков, пришедшие во время пересборки. Пока идет пересборка, не null.
+     */
+    private List<LikeChange> changesDuringBuild;
+    private volatile boolean ready;
+    private volatile boolean stale;
+
+    public RecommendationModel(FilmStorage filmStorage) {
+        this.filmStorage = filmStorage;
+    }
+
+    @PostConstruct
+    public void init() {
+        rebuild();
+    }
+
+    @Scheduled(
+            initialDelayString = "${filmorate.recommendations.rebuild-interval-ms:60000}",
+            fixedDelayString = "${filmorate.recommendations.rebuild-interval-ms:60000}"
+    )
+    public void rebuildIfStale() {
+        if (stale) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Таблица лайков читается без блокировки, поэтому изменения, примененные к старой модели
+     * за время чтения, запоминаются и повторяются на новой перед заменой. Повтор безопасен:
+     * лайк, который чтение уже увидело, повторно не добавляется.
+     */
+    public synchronized void rebuild() {
+        stale = false;
+        lock.writeLock().lock();
+        try {
+            changesDuringBuild = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            State built = build();
+            lock.writeLock().lock();
+            try {
+                for (LikeChange change : changesDuringBuild) {
+                    if (change.added) {
+                        addLike(built, change.userId, change.filmId);
+                    } else {
+                        removeLike(built, change.userId, change.filmId);
+                    }
+                }
+                state = built;
+                changesDuringBuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            ready = true;
+            log.info("Построена модель рекомендаций: {} фильмов, {} пользователей",
+                    built.filmIndex.size(), built.userIndex.size());
+        } catch (DataAccessException e) {
+            lock.writeLock().lock();
+            try {
+                changesDuringBuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            stale = true;
+            log.error("Не удалось построить модель рекомендаций", e);
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Помечает модель устаревшей, при следующей проверке она будет пересобрана из таблицы лайков.
+     */
+    public void markStale() {
+        stale = true;
+    }
+
+    public void addLike(long userId, long filmId) {
+        lock.writeLock().lock();
+        try {
+            addLike(state, userId, filmId);
+            if (changesDuringBuild != null) {
+                changesDuringBuild.add(new LikeChange(userId, filmId, true));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeLike(long userId, long filmId) {
+        lock.writeLock().lock();
+        try {
+            removeLike(state, userId, filmId);
+            if (changesDuringBuild != null) {
+                changesDuringBuild.add(new LikeChange(userId, filmId, false));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void addLike(State current, long userId, long filmId) {
+        int film = current.filmIndex(filmId);
+        int user = current.userIndex(userId);
+        int[] liked = current.userLikes[user];
+        int position = Arrays.binarySearch(liked, film);
+        if (position >= 0) {
+            return;
+        }
+
+        for (int other : liked) {
+            current.changeCoCount(film, other, 1);
+            current.changeCoCount(other, film, 1);
+        }
+        current.userLikes[user] = insert(liked, -position - 1, film);
+        current.likeCounts[film]++;
+    }
+
+    private static void removeLike(State current, long userId, long filmId) {
+        int film = current.filmIndex.get(filmId);
+        int user = current.userIndex.get(userId);
+        if (film == MISSING || user == MISSING) {
+            return;
+        }
+        int[] liked = current.userLikes[user];
+        int position = Arrays.binarySearch(liked, film);
+        if (position < 0) {
+            return;
+        }
+
+        current.userLikes[user] = remove(liked, position);
+        for (int other : current.userLikes[user]) {
+            current.changeCoCount(film, other, -1);
+            current.changeCoCount(other, film, -1);
+        }
+        current.likeCounts[film]--;
+    }
+
+    /**
+     * Возвращает до limit фильмов, которые пользователь еще не лайкал, по убыванию оценки.
+     */
+    public List<Long> recommend(long userId, int limit) {
+        lock.readLock().lock();
+        try {
+            State current = state;
+            int user = current.userIndex.get(userId);
+            if (user == MISSING || limit <= 0) {
+                return new ArrayList<>();
+            }
+
+            List<Long> filmIds = new ArrayList<>();
+            for (Candidate candidate : score(current, user, limit, new double[current.filmIndex.size()])) {
+                filmIds.add(candidate.filmId);
+            }
+            return filmIds;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Заново читает таблицу лайков и возвращает независимую от текущей модели копию
+     * для пакетного расчета рекомендаций.
+     */
+    public Snapshot loadSnapshot() {
+        return new Snapshot(build());
+    }
+
+    /**
+     * Оценивает фильмы для пользователя. Буфер scores должен быть заполнен нулями
+     * и иметь размер не меньше числа фильмов, после расчета он снова обнуляется.
+     */
+    private static List<Candidate> score(State current, int user, int limit, double[] scores) {
+        int[] liked = current.userLikes[user];
+        int[] touched = new int[16];
+        int touchedCount = 0;
+
+        for (int film : liked) {
+            int[] neighbours = current.neighbours[film];
+            int[] counts = current.coCounts[film];
+            for (int k = 0; k < neighbours.length; k++) {
+                int candidate = neighbours[k];
+                if (Arrays.binarySearch(liked, candidate) >= 0) {
+                    continue;
+                }
+                if (scores[candidate] == 0) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    }
+                    touched[touchedCount++] = candidate;
+                }
+                scores[candidate] += counts[k]
+                        / Math.sqrt((double) current.likeCounts[film] * current.likeCounts[candidate]);
+            }
+        }
+
+        PriorityQueue<Candidate> top = new PriorityQueue<>(limit, Candidate.WORST_FIRST);
+        for (int i = 0; i < touchedCount; i++) {
+            Candidate candidate = new Candidate(current.filmIds[touched[i]], scores[touched[i]]);
+            scores[touched[i]] = 0;
+            if (top.size() < limit) {
+                top.add(candidate);
+            } else if (Candidate.WORST_FIRST.compare(candidate, top.peek()) > 0) {
+                top.poll();
+                top.add(candidate);
+            }
+        }
+
+        List<Candidate> candidates = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            candidates.add(top.poll());
+        }
+        Collections.reverse(candidates);
+        return candidates;
+    }
+
+    private State build() {
+        LongIntHashMap filmIndex = new LongIntHashMap(1024, MISSING);
+        LongIntHashMap userIndex = new LongIntHashMap(1024, MISSING);
+        long[][] ids = {new long[1024], new long[1024]};
+        int[][] pairs = {new int[1024], new int[1024]};
+        int[] pairCount = {0};
+
+        filmStorage.streamLikes(like -> {
+            int film = filmIndex.putIfAbsent(like.getFilmId(), filmIndex.size());
+            if (film == ids[0].length) {
+                ids[0] = Arrays.copyOf(ids[0], film * 2);
+            }
+            ids[0][film] = like.getFilmId();
+            int user = userIndex.putIfAbsent(like.getUserId(), userIndex.size());
+            if (user == ids[1].length) {
+                ids[1] = Arrays.copyOf(ids[1], user * 2);
+            }
+            ids[1][user] = like.getUserId();
+
+            if (pairCount[0] == pairs[0].length) {
+                pairs[0] = Arrays.copyOf(pairs[0], pairCount[0] * 2);
+                pairs[1] = Arrays.copyOf(pairs[1], pairCount[0] * 2);
+            }
+            pairs[0][pairCount[0]] = user;
+            pairs[1][pairCount[0]] = film;
+            pairCount[0]++;
+        });
+
+        int filmCount = filmIndex.size();
+        int userCount = userIndex.size();
+        int[][] userLikes = group(pairs[0], pairs[1], pairCount[0], userCount);
+        int[][] filmUsers = group(pairs[1], pairs[0], pairCount[0], filmCount);
+
+        int[] likeCounts = new int[filmCount];
+        int[][] neighbours = new int[filmCount][];
+        int[][] coCounts = new int[filmCount][];
+        int[] counter = new int[filmCount];
+        int[] touched = new int[filmCount];
+
+        for (int film = 0; film < filmCount; film++) {
+            likeCounts[film] = filmUsers[film].length;
+            int touchedCount = 0;
+            for (int user : filmUsers[film]) {
+                for (int other : userLikes[user]) {
+                    if (other != film && counter[other]++ == 0) {
+                        touched[touchedCount++] = other;
+                    }
+                }
+            }
+            Arrays.sort(touched, 0, touchedCount);
+            neighbours[film] = Arrays.copyOf(touched, touchedCount);
+            coCounts[film] = new int[touchedCount];
+            for (int k = 0; k < touchedCount; k++) {
+                coCounts[film][k] = counter[touched[k]];
+                counter[touched[k]] = 0;
+            }
+        }
+
+        return new State(filmIndex, userIndex, Arrays.copyOf(ids[0], filmCount), Arrays.copyOf(ids[1], userCount),
+                userLikes, neighbours, coCounts, likeCounts);
+    }
+
+    /**
+     * Раскладывает пары (key, value) по ключам в отсортированные массивы значений.
+     */
+    private static int[][] group(int[] keys, int[] values, int count, int keyCount) {
+        int[] sizes = new int[keyCount];
+        for (int i = 0; i < count; i++) {
+            sizes[keys[i]]++;
+        }
+        int[][] groups = new int[keyCount][];
+        for (int key = 0; key < keyCount; key++) {
+            groups[key] = sizes[key] == 0 ? EMPTY : new int[sizes[key]];
+            sizes[key] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            groups[keys[i]][sizes[keys[i]]++] = values[i];
+        }
+        for (int[] group : groups) {
+            Arrays.sort(group);
+        }
+        return groups;
+    }
+
+    private static int[] insert(int[] array, int position, int value) {
+        int[] result = new int[array.length + 1];
+        System.arraycopy(array, 0, result, 0, position);
+        result[position] = value;
+        System.arraycopy(array, position, result, position + 1, array.length - position);
+        return result;
+    }
+
+    private static int[] remove(int[] array, int position) {
+        if (array.length == 1) {
+            return EMPTY;
+        }
+        int[] result = new int[array.length - 1];
+        System.arraycopy(array, 0, result, 0, position);
+        System.arraycopy(array, position + 1, result, position, array.length - position - 1);
+        return result;
+    }
+
+    /**
+     * Индексы и матрица совместных лайков. Массивы по фильмам и пользователям растут
+     * удвоением по мере появления новых идентификаторов, число занятых ячеек равно
+     * размеру соответствующего индекса.
+     */
+    private static class State {
+        private final LongIntHashMap filmIndex;
+        private final LongIntHashMap userIndex;
+        private long[] filmIds;
+        private long[] userIds;
+        private int[][] userLikes;
+        private int[][] neighbours;
+        private int[][] coCounts;
+        private int[] likeCounts;
+
+        private State(LongIntHashMap filmIndex, LongIntHashMap userIndex, long[] filmIds, long[] userIds,
+                      int[][] userLikes, int[][] neighbours, int[][] coCounts, int[] likeCounts) {
+            this.filmIndex = filmIndex;
+            this.userIndex = userIndex;
+            this.filmIds = filmIds;
+            this.userIds = userIds;
+            this.userLikes = userLikes;
+            this.neighbours = neighbours;
+            this.coCounts = coCounts;
+            this.likeCounts = likeCounts;
+        }
+
+        private int filmIndex(long filmId) {
+            int film = filmIndex.get(filmId);
+            if (film != MISSING) {
+                return film;
+            }
+            film = filmIndex.size();
+            filmIndex.put(filmId, film);
+            if (film == filmIds.length) {
+                int capacity = Math.max(16, film * 2);
+                filmIds = Arrays.copyOf(filmIds, capacity);
+                neighbours = Arrays.copyOf(neighbours, capacity);
+                coCounts = Arrays.copyOf(coCounts, capacity);
+                likeCounts = Arrays.copyOf(likeCounts, capacity);
+            }
+            filmIds[film] = filmId;
+            neighbours[film] = EMPTY;
+            coCounts[film] = EMPTY;
+            return film;
+        }
+
+        private int userIndex(long userId) {
+            int user = userIndex.get(userId);
+            if (user != MISSING) {
+                return user;
+            }
+            user = userIndex.size();
+            userIndex.put(userId, user);
+            if (user == userLikes.length) {
+                userLikes = Arrays.copyOf(userLikes, Math.max(16, user * 2));
+                userIds = Arrays.copyOf(userIds, userLikes.length);
+            }
+            userLikes[user] = EMPTY;
+            userIds[user] = userId;
+            return user;
+        }
+
+        /**
+         * Меняет число совместных лайков пары фильмов, удаляя соседа при нуле.
+         */
+        private void changeCoCount(int film, int other, int delta) {
+            int[] row = neighbours[film];
+            int position = Arrays.binarySearch(row, other);
+            if (position >= 0) {
+                int count = coCounts[film][position] + delta;
+                if (count > 0) {
+                    coCounts[film][position] = count;
+                } else {
+                    neighbours[film] = remove(row, position);
+                    coCounts[film] = remove(coCounts[film], position);
+                }
+            } else if (delta > 0) {
+                int insertAt = -position - 1;
+                neighbours[film] = insert(row, insertAt, other);
+                coCounts[film] = insert(coCounts[film], insertAt, delta);
+            }
+        }
+    }
+
+    /**
+     * Неизменяемая копия модели. Для расчета в нескольких потоках каждому потоку нужен
+     * свой буфер из {@link #newBuffer()}.
+     */
+    public static final class Snapshot {
+        private final State state;
+
+        private Snapshot(State state) {
+            this.state = state;
+        }
+
+        /**
+         * Идентификаторы пользователей, у которых есть лайки, по возрастанию.
+         */
+        public long[] getUserIds() {
+            long[] userIds = Arrays.copyOf(state.userIds, state.userIndex.size());
+            Arrays.sort(userIds);
+            return userIds;
+        }
+
+        public double[] newBuffer() {
+            return new double[state.filmIndex.size()];
+        }
+
+        public List<Recommendation> recommend(long userId, int limit, double[] buffer) {
+            int user = state.userIndex.get(userId);
+            List<Recommendation> recommendations = new ArrayList<>();
+            if (user == MISSING || limit <= 0) {
+                return recommendations;
+            }
+            for (Candidate candidate : score(state, user, limit, buffer)) {
+                recommendations.add(new Recommendation(userId, candidate.filmId, candidate.score));
+            }
+            return recommendations;
+        }
+    }
+
+    private static class LikeChange {
+        private final long userId;
+        private final long filmId;
+        private final boolean added;
+
+        private LikeChange(long userId, long filmId, boolean added) {
+            this.userId = userId;
+            this.filmId = filmId;
+            this.added = added;
+        }
+    }
+
+    private static class Candidate {
+        private static final Comparator<Candidate> WORST_FIRST = Comparator
+                .comparingDouble((Candidate candidate) -> candidate.score)
+                .thenComparing(candidate -> candidate.filmId, Comparator.reverseOrder());
+
+        private final long filmId;
+        private final double score;
+
+        private Candidate(long filmId, double score) {
+            this.filmId = filmId;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Suggestion;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+
+/**
+ * Префиксное дерево со сжатыми путями для подсказок по названиям фильмов и именам режиссеров.
+ * Ключи - название целиком и его хвосты с начала каждого слова. Метки ребер не копируются,
+ * а ссылаются на нормализованный текст варианта. В каждом узле заранее сохранены лучшие
+ * по числу лайков варианты его поддерева, поэтому запрос проходит только по символам префикса.
+ * <p>
+ * Структура дерева пересобирается, когда изменился {@link FilmSearchIndex}. Изменение лайков
+ * структуру не трогает: пересчитываются только лучшие варианты в узлах над ключами фильмов,
+ * лайки которых изменились, и их режиссеров.
+ */
+@Component
+@Slf4j
+public class SuggestIndex {
+    public static final String TITLE = "title";
+    public static final String DIRECTOR = "director";
+
+    private static final int MISSING = -1;
+
+    private final FilmSearchIndex filmSearchIndex;
+    private final PopularityIndex popularityIndex;
+    private final int maxLimit;
+    private volatile Trie trie;
+    private long searchVersion = -1;
+
+    public SuggestIndex(FilmSearchIndex filmSearchIndex, PopularityIndex popularityIndex,
+                        @Value("${filmorate.suggest.max-limit:10}") int maxLimit) {
+        this.filmSearchIndex = filmSearchIndex;
+        this.popularityIndex = popularityIndex;
+        this.maxLimit = maxLimit;
+        this.trie = new Trie(new String[0], new String[0], new long[0], 0, Map.of(), Map.of(), maxLimit);
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public boolean isReady() {
+        return filmSearchIndex.isReady() && popularityIndex.isReady();
+    }
+
+    @PostConstruct
+    @Scheduled(
+            initialDelayString = "${filmorate.suggest.refresh-ms:5000}",
+            fixedDelayString = "${filmorate.suggest.refresh-ms:5000}"
+    )
+    public synchronized void refresh() {
+        // изменения лайков забираются до чтения лайков для сборки, чтобы не потерять пришедшие между ними
+        Map<Long, Integer> changedLikes = popularityIndex.drainChangedLikes();
+        long currentSearchVersion = filmSearchIndex.getVersion();
+        if (currentSearchVersion != searchVersion) {
+            rebuild();
+            searchVersion = currentSearchVersion;
+        } else if (!changedLikes.isEmpty()) {
+            Trie current = trie;
+            int updated = current.updateLikes(changedLikes);
+            // запись volatile-поля публикует обновленные веса читателям
+            trie = current;
+            log.debug("Обновлены лайки {} вариантов подсказок", updated);
+        }
+    }
+
+    private void rebuild() {
+        Map<Long, String> titles = filmSearchIndex.getTitles();
+        Map<Long, String> directorNames = filmSearchIndex.getDirectorNames();
+        Map<Long, Set<Long>> filmsByDirector = filmSearchIndex.getFilmsByDirector();
+        Map<Long, Integer> likes = popularityIndex.getLikes(titles.keySet());
+
+        int size = titles.size() + directorNames.size();
+        String[] texts = new String[size];
+        String[] keys = new String[size];
+        long[] ids = new long[size];
+        int entry = 0;
+        for (Map.Entry<Long, String> title : titles.entrySet()) {
+            texts[entry] = title.getValue();
+            keys[entry] = normalize(title.getValue());
+            ids[entry++] = title.getKey();
+        }
+        for (Map.Entry<Long, String> director : directorNames.entrySet()) {
+            texts[entry] = director.getValue();
+            keys[entry] = normalize(director.getValue());
+            ids[entry++] = director.getKey();
+        }
+
+        trie = new Trie(texts, keys, ids, titles.size(), likes, filmsByDirector, maxLimit);
+        log.debug("Пересобрано дерево подсказок: {} фильмов, {} режиссеров, {} узлов",
+                titles.size(), directorNames.size(), trie.nodeCount);
+    }
+
+    /**
+     * Возвращает не более limit подсказок, у которых название или одно из слов начинается с prefix.
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        return trie.suggest(normalize(prefix), limit);
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Дерево в параллельных массивах. Узлы нумеруются в порядке обхода в ширину, поэтому дети
+     * узла идут подряд (от firstChild, по возрастанию первого символа метки) и у ребенка номер
+     * больше, чем у родителя. Ключ - пара (вариант, начало слова), упакованная в long.
+     * <p>
+     * Веса и списки лучших вариантов меняются на месте одним потоком обновления. Читатель
+     * может застать список посреди пересчета, поэтому повторы убираются, а порядок
+     * восстанавливается уже при чтении.
+     */
+    private static final class Trie {
+        private final String[] texts;
+        private final String[] keys;
+        private final long[] ids;
+        private final int filmCount;
+        private final int[] weights;
+        private final LongIntHashMap filmEntries;
+        private final int[] filmDirectorOffsets;
+        private final int[] filmDirectors;
+
+        private final long[] sortedKeys;
+        private final int[] keyNodes;
+        private final int[] entryKeyOffsets;
+        private final int[] entryKeys;
+
+        private final int limit;
+        private int nodeCount;
+        private int[] parents;
+        private int[] depths;
+        private int[] labelKeys;
+        private char[] firstChars;
+        private int[] firstChildren;
+        private int[] childCounts;
+        private int[] terminalStarts;
+        private int[] terminalCounts;
+        private final int[] top;
+        private final int[] topSizes;
+        private final int[] marks;
+        private int mark;
+
+        private Trie(String[] texts, String[] keys, long[] ids, int filmCount, Map<Long, Integer> likes,
+                     Map<Long, Set<Long>> filmsByDirector, int limit) {
+            this.texts = texts;
+            this.keys = keys;
+            this.ids = ids;
+            this.filmCount = filmCount;
+            this.limit = limit;
+
+            filmEntries = new LongIntHashMap(Math.max(16, filmCount), MISSING);
+            weights = new int[texts.length];
+            for (int entry = 0; entry < filmCount; entry++) {
+                filmEntries.put(ids[entry], entry);
+                weights[entry] = likes.getOrDefault(ids[entry], 0);
+            }
+            int[] directorCounts = new int[filmCount + 1];
+            for (int entry = filmCount; entry < texts.length; entry++) {
+                for (Long filmId : filmsByDirector.getOrDefault(ids[entry], Set.of())) {
+                    int film = filmEntries.get(filmId);
+                    if (film != MISSING) {
+                        weights[entry] += weights[film];
+                        directorCounts[film + 1]++;
+                    }
+                }
+            }
+            filmDirectorOffsets = prefixSums(directorCounts);
+            filmDirectors = new int[filmDirectorOffsets[filmCount]];
+            int[] filled = Arrays.copyOf(filmDirectorOffsets, filmCount);
+            for (int entry = filmCount; entry < texts.length; entry++) {
+                for (Long filmId : filmsByDirector.getOrDefault(ids[entry], Set.of())) {
+                    int film = filmEntries.get(filmId);
+                    if (film != MISSING) {
+                        filmDirectors[filled[film]++] = entry;
+                    }
+                }
+            }
+
+            sortedKeys = sortKeys(collectKeys());
+            keyNodes = new int[sortedKeys.length];
+            int[] keyCounts = new int[texts.length + 1];
+            for (long key : sortedKeys) {
+                keyCounts[entryOf(key) + 1]++;
+            }
+            entryKeyOffsets = prefixSums(keyCounts);
+            entryKeys = new int[sortedKeys.length];
+            filled = Arrays.copyOf(entryKeyOffsets, texts.length);
+            for (int i = 0; i < sortedKeys.length; i++) {
+                entryKeys[filled[entryOf(sortedKeys[i])]++] = i;
+            }
+
+            buildNodes();
+            top = new int[nodeCount * limit];
+            topSizes = new int[nodeCount];
+            marks = new int[nodeCount];
+            for (int node = nodeCount - 1; node >= 0; node--) {
+                computeTop(node);
+            }
+        }
+
+        /**
+         * Название целиком и хвост с начала каждого следующего слова.
+         */
+        private long[] collectKeys() {
+            long[] collected = new long[16];
+            int size = 0;
+            for (int entry = 0; entry < keys.length; entry++) {
+                String key = keys[entry];
+                for (int start = 0; start < key.length(); start++) {
+                    if (start == 0 || (!Character.isLetterOrDigit(key.charAt(start - 1))
+                            && Character.isLetterOrDigit(key.charAt(start)))) {
+                        if (size == collected.length) {
+                            collected = Arrays.copyOf(collected, size * 2);
+                        }
+                        collected[size++] = ((long) entry << 32) | start;
+                    }
+                }
+            }
+            return Arrays.copyOf(collected, size);
+        }
+
+        /**
+         * Строит узлы по отсортированным ключам. Узел покрывает отрезок ключей с общим префиксом
+         * длины depth; ключи, которые на нем заканчиваются, стоят в начале отрезка. Остальные
+         * делятся на группы по следующему символу, и каждая группа становится ребенком с меткой
+         * до конца общего префикса группы.
+         */
+        private void buildNodes() {
+            int capacity = 2 * sortedKeys.length + 1;
+            parents = new int[capacity];
+            depths = new int[capacity];
+            labelKeys = new int[capacity];
+            firstChars = new char[capacity];
+            firstChildren = new int[capacity];
+            childCounts = new int[capacity];
+            terminalStarts = new int[capacity];
+            terminalCounts = new int[capacity];
+            int[] rangeEnds = new int[capacity];
+
+            parents[0] = MISSING;
+            rangeEnds[0] = sortedKeys.length;
+            nodeCount = 1;
+            for (int node = 0; node < nodeCount; node++) {
+                int from = terminalStarts[node];
+                int to = rangeEnds[node];
+                int depth = depths[node];
+                int terminals = 0;
+                while (from + terminals < to && keyLength(sortedKeys[from + terminals]) == depth) {
+                    keyNodes[from + terminals] = node;
+                    terminals++;
+                }
+                terminalCounts[node] = terminals;
+                firstChildren[node] = nodeCount;
+
+                for (int groupStart = from + terminals; groupStart < to; ) {
+                    char label = charAt(sortedKeys[groupStart], depth);
+                    int groupEnd = groupStart + 1;
+                    while (groupEnd < to && charAt(sortedKeys[groupEnd], depth) == label) {
+                        groupEnd++;
+                    }
+                    int child = nodeCount++;
+                    parents[child] = node;
+                    depths[child] = depth + commonPrefix(sortedKeys[groupStart], sortedKeys[groupEnd - 1], depth);
+                    labelKeys[child] = groupStart;
+                    firstChars[child] = label;
+                    terminalStarts[child] = groupStart;
+                    rangeEnds[child] = groupEnd;
+                    childCounts[node]++;
+                    groupStart = groupEnd;
+                }
+            }
+
+            parents = Arrays.copyOf(parents, nodeCount);
+            depths = Arrays.copyOf(depths, nodeCount);
+            labelKeys = Arrays.copyOf(labelKeys, nodeCount);
+            firstChars = Arrays.copyOf(firstChars, nodeCount);
+            firstChildren = Arrays.copyOf(firstChildren, nodeCount);
+            childCounts = Arrays.copyOf(childCounts, nodeCount);
+            terminalStarts = Arrays.copyOf(terminalStarts, nodeCount);
+            terminalCounts = Arrays.copyOf(terminalCounts, nodeCount);
+        }
+
+        /**
+         * Переносит новые лайки фильмов и их режиссеров и пересчитывает лучшие варианты только
+         * в узлах над их ключами - снизу вверх, чтобы дети были готовы раньше родителя.
+         * Возвращает число изменившихся вариантов.
+         */
+        private int updateLikes(Map<Long, Integer> changedLikes) {
+            int[] changed = new int[16];
+            int size = 0;
+            for (Map.Entry<Long, Integer> like : changedLikes.entrySet()) {
+                int film = filmEntries.get(like.getKey());
+                if (film == MISSING || weights[film] == like.getValue()) {
+                    continue;
+                }
+                int delta = like.getValue() - weights[film];
+                weights[film] = like.getValue();
+                int required = size + 1 + filmDirectorOffsets[film + 1] - filmDirectorOffsets[film];
+                if (required > changed.length) {
+                    changed = Arrays.copyOf(changed, 2 * required);
+                }
+                changed[size++] = film;
+                for (int k = filmDirectorOffsets[film]; k < filmDirectorOffsets[film + 1]; k++) {
+                    weights[filmDirectors[k]] += delta;
+                    changed[size++] = filmDirectors[k];
+                }
+            }
+            if (size == 0) {
+                return 0;
+            }
+
+            mark++;
+            int[] nodes = new int[16];
+            int nodeSize = 0;
+            for (int i = 0; i < size; i++) {
+                int entry = changed[i];
+                for (int k = entryKeyOffsets[entry]; k < entryKeyOffsets[entry + 1]; k++) {
+                    for (int node = keyNodes[entryKeys[k]]; node != MISSING && marks[node] != mark;
+                         node = parents[node]) {
+                        marks[node] = mark;
+                        if (nodeSize == nodes.length) {
+                            nodes = Arrays.copyOf(nodes, nodeSize * 2);
+                        }
+                        nodes[nodeSize++] = node;
+                    }
+                }
+            }
+            nodes = Arrays.copyOf(nodes, nodeSize);
+            Arrays.sort(nodes);
+            for (int i = nodeSize - 1; i >= 0; i--) {
+                computeTop(nodes[i]);
+            }
+            return size;
+        }
+
+        /**
+         * Лучшие варианты узла собираются из вариантов, заканчивающихся в нем, и лучших вариантов
+         * детей: если вариант не попал в лучшие у ребенка, там есть limit вариантов лучше него.
+         */
+        private void computeTop(int node) {
+            int[] best = new int[limit];
+            int size = 0;
+            for (int k = terminalStarts[node]; k < terminalStarts[node] + terminalCounts[node]; k++) {
+                size = offer(best, size, entryOf(sortedKeys[k]));
+            }
+            for (int child = firstChildren[node]; child < firstChildren[node] + childCounts[node]; child++) {
+                for (int k = 0; k < topSizes[child]; k++) {
+                    size = offer(best, size, top[child * limit + k]);
+                }
+            }
+            System.arraycopy(best, 0, top, node * limit, size);
+            topSizes[node] = size;
+        }
+
+        private int offer(int[] best, int size, int entry) {
+            for (int i = 0; i < size; i++) {
+                if (best[i] == entry) {
+                    return size;
+                }
+            }
+            if (size == limit && compare(entry, best[size - 1]) >= 0) {
+                return size;
+            }
+            int position = size == limit ? size - 1 : size++;
+            while (position > 0 && compare(entry, best[position - 1]) < 0) {
+                best[position] = best[position - 1];
+                position--;
+            }
+            best[position] = entry;
+            return size;
+        }
+
+        /**
+         * По убыванию лайков, затем по тексту, типу и id.
+         */
+        private int compare(int first, int second) {
+            int result = Integer.compare(weights[second], weights[first]);
+            if (result == 0) {
+                result = texts[first].compareTo(texts[second]);
+            }
+            if (result == 0) {
+                result = type(first).compareTo(type(second));
+            }
+            return result != 0 ? result : Long.compare(ids[first], ids[second]);
+        }
+
+        private List<Suggestion> suggest(String prefix, int count) {
+            int node = 0;
+            int depth = 0;
+            while (depth < prefix.length()) {
+                node = child(node, prefix.charAt(depth));
+                if (node == MISSING) {
+                    return new ArrayList<>();
+                }
+                long label = sortedKeys[labelKeys[node]];
+                int end = Math.min(depths[node], prefix.length());
+                for (int i = depth + 1; i < end; i++) {
+                    if (charAt(label, i) != prefix.charAt(i)) {
+                        return new ArrayList<>();
+                    }
+                }
+                depth = depths[node];
+            }
+
+            int[] entries = new int[limit];
+            int size = 0;
+            for (int k = 0; k < topSizes[node]; k++) {
+                size = offer(entries, size, top[node * limit + k]);
+            }
+            List<Suggestion> suggestions = new ArrayList<>(Math.min(count, size));
+            for (int i = 0; i < size && i < count; i++) {
+                int entry = entries[i];
+                suggestions.add(new Suggestion(texts[entry], type(entry), ids[entry], weights[entry]));
+            }
+            return suggestions;
+        }
+
+        private int child(int node, char label) {
+            int low = firstChildren[node];
+            int high = low + childCounts[node] - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (firstChars[middle] < label) {
+                    low = middle + 1;
+                } else if (firstChars[middle] > label) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return MISSING;
+        }
+
+        private String type(int entry) {
+            return entry < filmCount ? TITLE : DIRECTOR;
+        }
+
+        private static int entryOf(long key) {
+            return (int) (key >>> 32);
+        }
+
+        private static int startOf(long key) {
+            return (int) key;
+        }
+
+        private int keyLength(long key) {
+            return keys[entryOf(key)].length() - startOf(key);
+        }
+
+        private char charAt(long key, int index) {
+            return keys[entryOf(key)].charAt(startOf(key) + index);
+        }
+
+        private int commonPrefix(long first, long second, int from) {
+            int length = Math.min(keyLength(first), keyLength(second));
+            int i = from;
+            while (i < length && charAt(first, i) == charAt(second, i)) {
+                i++;
+            }
+            return i - from;
+        }
+
+        private int compareKeys(long first, long second) {
+            int length = Math.min(keyLength(first), keyLength(second));
+            for (int i = 0; i < length; i++) {
+                char a = charAt(first, i);
+                char b = charAt(second, i);
+                if (a != b) {
+                    return Character.compare(a, b);
+                }
+            }
+            int result = Integer.compare(keyLength(first), keyLength(second));
+            return result != 0 ? result : Long.compare(first, second);
+        }
+
+        /**
+         * Сортировка слиянием ключей по тексту хвоста, без упаковки в объекты.
+         */
+        private long[] sortKeys(long[] source) {
+            long[] from = source;
+            long[] to = new long[source.length];
+            for (int width = 1; width < source.length; width *= 2) {
+                for (int low = 0; low < source.length; low += 2 * width) {
+                    int middle = Math.min(low + width, source.length);
+                    int high = Math.min(low + 2 * width, source.length);
+                    int i = low;
+                    int j = middle;
+                    for (int k = low; k < high; k++) {
+                        to[k] = j >= high || (i < middle && compareKeys(from[i], from[j]) <= 0) ? from[i++] : from[j++];
+                    }
+                }
+                long[] swap = from;
+                from = to;
+                to = swap;
+            }
+            return from;
+        }
+
+        private static int[] prefixSums(int[] counts) {
+            for (int i = 1; i < counts.length; i++) {
+                counts[i] += counts[i - 1];
+            }
+            return counts;
+        }
+    }
+}
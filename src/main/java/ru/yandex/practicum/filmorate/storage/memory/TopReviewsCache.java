@@ -0,0 +1,78 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Review;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * LRU-кеш первых size отзывов фильма по убыванию полезности. Запись фильма сбрасывается
+ * при создании, изменении и удалении его отзывов и при голосовании за них.
+ */
+@Component
+public class TopReviewsCache {
+    private final int maxFilms;
+    private final int size;
+    private final LinkedHashMap<Long, List<Review>> entries;
+    private long generation;
+
+    public TopReviewsCache(
+            @Value("${filmorate.reviews.top-cache.max-films:1000}") int maxFilms,
+            @Value("${filmorate.reviews.top-cache.size:10}") int size
+    ) {
+        this.maxFilms = maxFilms;
+        this.size = size;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<Review>> eldest) {
+                return size() > TopReviewsCache.this.maxFilms;
+            }
+        };
+    }
+
+    /**
+     * Сколько отзывов фильма хранится в кеше. Запросы с большим count идут в базу.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Первые count отзывов фильма. При промахе loader должен вернуть первые getSize() отзывов.
+     */
+    public List<Review> get(Long filmId, int count, Function<Long, List<Review>> loader) {
+        long loadGeneration;
+        synchronized (this) {
+            List<Review> cached = entries.get(filmId);
+            if (cached != null) {
+                return new ArrayList<>(cached.subList(0, Math.min(count, cached.size())));
+            }
+            loadGeneration = generation;
+        }
+
+        List<Review> top = loader.apply(filmId);
+
+        synchronized (this) {
+            // пока отзывы читались из базы, кеш могли инвалидировать - такой результат не сохраняем
+            if (loadGeneration == generation) {
+                entries.put(filmId, List.copyOf(top));
+            }
+        }
+        return new ArrayList<>(top.subList(0, Math.min(count, top.size())));
+    }
+
+    public synchronized void invalidate(Long filmId) {
+        generation++;
+        entries.remove(filmId);
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+}
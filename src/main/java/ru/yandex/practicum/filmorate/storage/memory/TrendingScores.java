@@ -0,0 +1,164 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.TrendingWindow;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Экспоненциально затухающие оценки фильмов по лайкам для каждого окна {@link TrendingWindow}.
+ * Таблица разбита на полосы по идентификатору фильма, оценка фильма меняется через CAS
+ * без блокировок, а затухание применяется лениво - в момент изменения или чтения.
+ */
+@Component
+@Slf4j
+public class TrendingScores {
+    private static final int STRIPES = 16;
+    private static final TrendingWindow[] WINDOWS = TrendingWindow.values();
+    private static final double[] DECAY_RATES = new double[WINDOWS.length];
+
+    static {
+        for (TrendingWindow window : WINDOWS) {
+            DECAY_RATES[window.ordinal()] = Math.log(2) / window.getHalfLife().toMillis();
+        }
+    }
+
+    private final FilmStorage filmStorage;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public TrendingScores(FilmStorage filmStorage) {
+        this.filmStorage = filmStorage;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @PostConstruct
+    public void rebuild() {
+        for (Stripe stripe : stripes) {
+            stripe.scores.clear();
+        }
+        try {
+            long now = System.currentTimeMillis();
+            filmStorage.streamLikes(like -> add(like.getFilmId(), like.getCreatedAt(), 1, now));
+            log.info("Восстановлены оценки популярности за последнее время для {} фильмов", size());
+        } catch (DataAccessException e) {
+            log.error("Не удалось восстановить оценки популярности за последнее время", e);
+        }
+    }
+
+    public void addLike(Long filmId, long likedAt) {
+        add(filmId, likedAt, 1, System.currentTimeMillis());
+    }
+
+    public void removeLike(Long filmId, long likedAt) {
+        add(filmId, likedAt, -1, System.currentTimeMillis());
+    }
+
+    public void removeFilm(Long filmId) {
+        stripe(filmId).remove(filmId);
+    }
+
+    public List<Long> getTop(TrendingWindow window, int count) {
+        if (count <= 0) {
+            return new ArrayList<>();
+        }
+
+        long now = System.currentTimeMillis();
+        int w = window.ordinal();
+        PriorityQueue<Candidate> top = new PriorityQueue<>(count, Comparator.comparingDouble(c -> c.value));
+
+        for (Stripe stripe : stripes) {
+            stripe.scores.forEach((filmId, cell) -> {
+                double value = cell.get().valueAt(w, now);
+                if (value <= 0) {
+                    return;
+                }
+                if (top.size() < count) {
+                    top.add(new Candidate(filmId, value));
+                } else if (value > top.peek().value) {
+                    top.poll();
+                    top.add(new Candidate(filmId, value));
+                }
+            });
+        }
+
+        List<Long> filmIds = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            filmIds.add(top.poll().filmId);
+        }
+        Collections.reverse(filmIds);
+        return filmIds;
+    }
+
+    private void add(Long filmId, long likedAt, int sign, long now) {
+        AtomicReference<Score> cell = stripe(filmId)
+                .computeIfAbsent(filmId, id -> new AtomicReference<>(new Score(new double[WINDOWS.length], now)));
+
+        Score current;
+        Score updated;
+        do {
+            current = cell.get();
+            updated = current.plus(sign, likedAt, now);
+        } while (!cell.compareAndSet(current, updated));
+    }
+
+    private Map<Long, AtomicReference<Score>> stripe(Long filmId) {
+        return stripes[(int) (filmId % STRIPES)].scores;
+    }
+
+    private int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.scores.size();
+        }
+        return size;
+    }
+
+    private static class Stripe {
+        private final Map<Long, AtomicReference<Score>> scores = new ConcurrentHashMap<>();
+    }
+
+    private static class Candidate {
+        private final long filmId;
+        private final double value;
+
+        private Candidate(long filmId, double value) {
+            this.filmId = filmId;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Неизменяемое значение оценок по всем окнам, приведенное к моменту updatedAt.
+     */
+    private static class Score {
+        private final double[] values;
+        private final long updatedAt;
+
+        private Score(double[] values, long updatedAt) {
+            this.values = values;
+            this.updatedAt = updatedAt;
+        }
+
+        private double valueAt(int window, long now) {
+            return values[window] * Math.exp(-DECAY_RATES[window] * Math.max(0, now - updatedAt));
+        }
+
+        private Score plus(int sign, long likedAt, long now) {
+            long at = Math.max(now, updatedAt);
+            double[] next = new double[values.length];
+            for (int w = 0; w < values.length; w++) {
+                double contribution = Math.exp(-DECAY_RATES[w] * Math.max(0, at - likedAt));
+                next[w] = Math.max(0, valueAt(w, at) + sign * contribution);
+            }
+            return new Score(next, at);
+        }
+    }
+}
@@ -0,0 +1,2 @@
+--Индекс для постраничного чтения ленты пользователя по возрастанию event_id
+CREATE INDEX IF NOT EXISTS feed_user_event_idx ON feed (user_id, event_id);
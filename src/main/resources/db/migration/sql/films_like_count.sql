@@ -0,0 +1,26 @@
+--Счетчик лайков фильма
+ALTER TABLE films
+    ADD COLUMN IF NOT EXISTS like_count integer DEFAULT 0 NOT NULL;
+
+--Повторные лайки оставляем по одному, чтобы можно было построить уникальный индекс
+CREATE TABLE likes_duplicates AS
+SELECT film_id, user_id
+FROM likes
+GROUP BY film_id, user_id
+HAVING COUNT(*) > 1;
+
+DELETE FROM likes
+WHERE (film_id, user_id) IN (SELECT film_id, user_id FROM likes_duplicates);
+
+INSERT INTO likes (film_id, user_id)
+SELECT film_id, user_id
+FROM likes_duplicates;
+
+DROP TABLE likes_duplicates;
+
+UPDATE films f
+SET like_count = (SELECT COUNT(*) FROM likes l WHERE l.film_id = f.film_id);
+
+CREATE INDEX IF NOT EXISTS films_like_count_idx ON films (like_count DESC);
+
+CREATE UNIQUE INDEX IF NOT EXISTS likes_film_user_idx ON likes (film_id, user_id);
@@ -0,0 +1,2 @@
+--Индекс для выборки друзей пользователя и удаления дружбы
+CREATE INDEX IF NOT EXISTS friends_user_friend_idx ON friends (user_id, friend_id);
@@ -0,0 +1,3 @@
+--Время постановки лайка
+ALTER TABLE likes
+    ADD COLUMN IF NOT EXISTS created_at timestamp DEFAULT CURRENT_TIMESTAMP NOT NULL;
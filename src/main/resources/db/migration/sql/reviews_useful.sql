@@ -0,0 +1,17 @@
+--Рейтинг полезности отзыва, поддерживается при голосовании
+UPDATE reviews r
+SET useful = COALESCE((SELECT SUM(CASE WHEN rl.is_positive THEN 1 ELSE -1 END)
+                       FROM reviews_likes rl
+                       WHERE rl.review_id = r.review_id), 0);
+
+ALTER TABLE reviews
+    ALTER COLUMN useful SET DEFAULT 0;
+
+ALTER TABLE reviews
+    ALTER COLUMN useful SET NOT NULL;
+
+CREATE INDEX IF NOT EXISTS reviews_film_useful_idx ON reviews (film_id, useful DESC, review_id);
+
+CREATE INDEX IF NOT EXISTS reviews_useful_idx ON reviews (useful DESC);
+
+CREATE INDEX IF NOT EXISTS reviews_likes_user_idx ON reviews_likes (user_id);
@@ -0,0 +1,33 @@
+--Рекомендации для всех пользователей, рассчитанные пакетным заданием
+CREATE TABLE IF NOT EXISTS user_recommendations
+(
+    user_id  integer,
+    position integer,
+    film_id  integer,
+    score    double precision,
+    CONSTRAINT user_recommendations_key PRIMARY KEY (user_id, position)
+);
+
+ALTER TABLE user_recommendations
+    ADD FOREIGN KEY (user_id) REFERENCES users (user_id) ON DELETE CASCADE;
+
+ALTER TABLE user_recommendations
+    ADD FOREIGN KEY (film_id) REFERENCES films (film_id) ON DELETE CASCADE;
+
+--Запуски пакетного задания и обработанные диапазоны пользователей
+CREATE TABLE IF NOT EXISTS recommendation_runs
+(
+    run_id      integer GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    started_at  timestamp DEFAULT CURRENT_TIMESTAMP NOT NULL,
+    finished_at timestamp
+);
+
+CREATE TABLE IF NOT EXISTS recommendation_checkpoints
+(
+    run_id      integer,
+    range_start integer,
+    CONSTRAINT recommendation_checkpoints_key PRIMARY KEY (run_id, range_start)
+);
+
+ALTER TABLE recommendation_checkpoints
+    ADD FOREIGN KEY (run_id) REFERENCES recommendation_runs (run_id) ON DELETE CASCADE;
@@ -0,0 +1,143 @@
+package ru.yandex.practicum.filmorate.storage.db;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Списки фильмов собираются за постоянное число запросов, сколько бы фильмов в них ни было.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:film-hydrator-test;DB_CLOSE_DELAY=-1",
+        "spring.liquibase.drop-first=true"
+})
+@Transactional
+class FilmHydratorTest {
+    private static final AtomicInteger STATEMENTS = new AtomicInteger();
+    private static final Set<String> STATEMENT_METHODS = Set.of("createStatement", "prepareStatement", "prepareCall");
+
+    @Autowired
+    private FilmStorage filmStorage;
+    @Autowired
+    private DirectorStorage directorStorage;
+
+    @Test
+    void getAllFilmsUsesConstantNumberOfQueries() {
+        Director director = directorStorage.create(new Director(null, "Режиссер"));
+        createFilms(3, director);
+        List<Film> small = new ArrayList<>();
+        int smallQueries = countStatements(() -> small.addAll(filmStorage.getAllFilms()));
+
+        createFilms(30, director);
+        List<Film> large = new ArrayList<>();
+        int largeQueries = countStatements(() -> large.addAll(filmStorage.getAllFilms()));
+
+        assertEquals(small.size() + 30, large.size());
+        assertEquals(smallQueries, largeQueries);
+    }
+
+    @Test
+    void getMostPopularFilmsUsesConstantNumberOfQueries() {
+        Director director = directorStorage.create(new Director(null, "Режиссер"));
+        createFilms(3, director);
+        int smallQueries = countStatements(() -> filmStorage.getMostPopularFilms(1000, null, null));
+
+        createFilms(30, director);
+        List<Film> large = new ArrayList<>();
+        int largeQueries = countStatements(() -> large.addAll(filmStorage.getMostPopularFilms(1000, null, null)));
+
+        assertEquals(smallQueries, largeQueries);
+        large.forEach(film -> {
+            assertEquals(2, film.getGenres().size());
+            assertEquals(1, film.getDirectors().size());
+        });
+    }
+
+    private void createFilms(int count, Director director) {
+        List<Film> films = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Film film = new Film();
+            film.setName("Фильм " + i);
+            film.setDescription("Описание");
+            film.setReleaseDate(LocalDate.of(2000, 1, 1));
+            film.setDuration(100);
+            film.setMpa(new Mpa(1, null, null));
+            film.setGenres(List.of(new Genre(1L, null), new Genre(2L, null)));
+            film.setDirectors(new LinkedHashSet<>(List.of(director)));
+            films.add(film);
+        }
+        filmStorage.createFilms(films);
+    }
+
+    private static int countStatements(Runnable action) {
+        int before = STATEMENTS.get();
+        action.run();
+        return STATEMENTS.get() - before;
+    }
+
+    /**
+     * Оборачивает источник данных так, чтобы считать каждый созданный JDBC-запрос.
+     */
+    @TestConfiguration
+    static class StatementCountingConfig {
+        @Bean
+        static BeanPostProcessor statementCountingPostProcessor() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (!(bean instanceof DataSource)) {
+                        return bean;
+                    }
+                    DataSource dataSource = (DataSource) bean;
+                    return Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[]{DataSource.class},
+                            (proxy, method, args) -> {
+                                Object result = invoke(dataSource, method, args);
+                                return result instanceof Connection ? countingConnection((Connection) result) : result;
+                            });
+                }
+            };
+        }
+
+        private static Connection countingConnection(Connection connection) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if (STATEMENT_METHODS.contains(method.getName())) {
+                            STATEMENTS.incrementAndGet();
+                        }
+                        return invoke(connection, method, args);
+                    });
+        }
+
+        private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Переходы блоков между массивом и битовой картой на границе в 4096 значений.
+ */
+class FilmBitmapTest {
+    private static final int ARRAY_LIMIT = 4096;
+
+    @Test
+    void addSwitchesToBitmapAfterArrayLimit() {
+        int[] values = range(0, ARRAY_LIMIT + 1, 3);
+        FilmBitmap bitmap = new FilmBitmap();
+        for (int i = 0; i < ARRAY_LIMIT; i++) {
+            assertTrue(bitmap.add(values[i]));
+        }
+        assertFalse(bitmap.add(values[ARRAY_LIMIT - 1]));
+        assertEquals(ARRAY_LIMIT, bitmap.cardinality());
+
+        assertTrue(bitmap.add(values[ARRAY_LIMIT]));
+        assertFalse(bitmap.add(values[0]));
+        assertFalse(bitmap.add(values[ARRAY_LIMIT]));
+        assertEquals(ARRAY_LIMIT + 1, bitmap.cardinality());
+        assertFalse(bitmap.contains(1));
+        assertArrayEquals(values, bitmap.toArray());
+    }
+
+    @Test
+    void removeBelowLimitSwitchesBackToArray() {
+        int[] values = range(0, ARRAY_LIMIT + 1, 5);
+        FilmBitmap bitmap = of(values);
+
+        assertFalse(bitmap.remove(1));
+        assertTrue(bitmap.remove(values[0]));
+        assertFalse(bitmap.remove(values[0]));
+        assertEquals(ARRAY_LIMIT, bitmap.cardinality());
+        assertFalse(bitmap.contains(values[0]));
+        assertArrayEquals(range(5, ARRAY_LIMIT, 5), bitmap.toArray());
+
+        assertTrue(bitmap.add(values[0]));
+        assertEquals(ARRAY_LIMIT + 1, bitmap.cardinality());
+        assertArrayEquals(values, bitmap.toArray());
+    }
+
+    @Test
+    void andOfBitmapsBelowLimitReturnsArray() {
+        FilmBitmap first = of(range(0, 6000, 1));
+        FilmBitmap second = of(range(6000 - ARRAY_LIMIT, 12000, 1));
+
+        FilmBitmap result = first.and(second);
+        assertEquals(ARRAY_LIMIT, result.cardinality());
+        assertArrayEquals(IntStream.range(6000 - ARRAY_LIMIT, 6000).toArray(), result.toArray());
+
+        assertTrue(result.add(12000));
+        assertFalse(result.add(6000 - ARRAY_LIMIT));
+        assertEquals(ARRAY_LIMIT + 1, result.cardinality());
+        assertTrue(result.contains(12000));
+        assertEquals(ARRAY_LIMIT, first.and(second).cardinality());
+    }
+
+    @Test
+    void andOfBitmapsAboveLimitKeepsBitmap() {
+        FilmBitmap first = of(range(0, 6000, 1));
+        FilmBitmap second = of(range(6000 - ARRAY_LIMIT - 1, 12000, 1));
+
+        FilmBitmap result = first.and(second);
+        assertEquals(ARRAY_LIMIT + 1, result.cardinality());
+        assertArrayEquals(IntStream.range(6000 - ARRAY_LIMIT - 1, 6000).toArray(), result.toArray());
+
+        assertTrue(result.remove(5999));
+        assertEquals(ARRAY_LIMIT, result.cardinality());
+        assertArrayEquals(IntStream.range(6000 - ARRAY_LIMIT - 1, 5999).toArray(), result.toArray());
+    }
+
+    @Test
+    void andOfArrayAndBitmapWorksInBothOrders() {
+        FilmBitmap dense = of(range(0, 10000, 2));
+        FilmBitmap sparse = of(new int[]{1, 2, 3, 4, 9998, 19999, 20000});
+
+        int[] expected = {2, 4, 9998};
+        assertArrayEquals(expected, dense.and(sparse).toArray());
+        assertArrayEquals(expected, sparse.and(dense).toArray());
+        assertEquals(3, sparse.and(dense).cardinality());
+        assertEquals(0, sparse.and(of(new int[]{5, 7})).cardinality());
+    }
+
+    @Test
+    void valuesInDifferentBlocksStaySorted() {
+        int[] values = {1, 65535, 65536, 65537, 1 << 20, Integer.MAX_VALUE};
+        FilmBitmap bitmap = of(new int[]{Integer.MAX_VALUE, 65536, 1, 1 << 20, 65537, 65535});
+        assertEquals(values.length, bitmap.cardinality());
+        assertArrayEquals(values, bitmap.toArray());
+        assertFalse(bitmap.contains(0));
+        assertFalse(bitmap.contains(2 << 20));
+
+        assertTrue(bitmap.remove(1 << 20));
+        assertFalse(bitmap.contains(1 << 20));
+        assertArrayEquals(new int[]{1, 65535, 65536, 65537, Integer.MAX_VALUE}, bitmap.toArray());
+
+        FilmBitmap other = of(new int[]{65535, 65537, 1 << 20, 3 << 16});
+        assertArrayEquals(new int[]{65535, 65537}, bitmap.and(other).toArray());
+    }
+
+    @Test
+    void copyIsIndependent() {
+        FilmBitmap bitmap = of(range(0, ARRAY_LIMIT + 10, 1));
+        FilmBitmap copy = bitmap.copy();
+
+        assertTrue(copy.remove(0));
+        assertTrue(copy.add(1 << 16));
+        assertTrue(bitmap.contains(0));
+        assertFalse(bitmap.contains(1 << 16));
+        assertEquals(ARRAY_LIMIT + 10, bitmap.cardinality());
+        assertEquals(ARRAY_LIMIT + 10, copy.cardinality());
+    }
+
+    private static FilmBitmap of(int[] values) {
+        FilmBitmap bitmap = new FilmBitmap();
+        for (int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    private static int[] range(int first, int count, int step) {
+        return IntStream.range(0, count).map(i -> first + i * step).toArray();
+    }
+}
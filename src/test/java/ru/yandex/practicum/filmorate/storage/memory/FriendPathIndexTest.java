@@ -0,0 +1,137 @@
+package ru.yandex.practicum.filmorate.storage.memory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Поиск кратчайшей цепочки дружбы: направление ребер, отсутствие цепочки и ограничение глубины.
+ * Граф заполняется через addFriend, поэтому хранилище пользователей не нужно.
+ */
+class FriendPathIndexTest {
+    private final FriendGraph friendGraph = new FriendGraph(null);
+    private final FriendPathIndex pathIndex = new FriendPathIndex(friendGraph);
+
+    @Test
+    void findPathReturnsShortestChain() {
+        addChain(1, 2, 3, 4, 5);
+        addChain(1, 6, 5);
+        pathIndex.refresh();
+
+        assertEquals(List.of(1L, 6L, 5L), pathIndex.findPath(1, 5, 10));
+        assertEquals(List.of(2L, 3L, 4L, 5L), pathIndex.findPath(2, 5, 10));
+    }
+
+    @Test
+    void findPathFollowsFriendDirection() {
+        addChain(1, 2, 3);
+        pathIndex.refresh();
+
+        assertEquals(List.of(1L, 2L, 3L), pathIndex.findPath(1, 3, 10));
+        assertEquals(List.of(), pathIndex.findPath(3, 1, 10));
+    }
+
+    @Test
+    void findPathReturnsEmptyListWhenNoChain() {
+        addChain(1, 2);
+        addChain(3, 4);
+        pathIndex.refresh();
+
+        assertEquals(List.of(), pathIndex.findPath(1, 4, 10));
+        assertEquals(List.of(), pathIndex.findPath(1, 99, 10));
+        assertEquals(List.of(), pathIndex.findPath(99, 1, 10));
+    }
+
+    @Test
+    void findPathRespectsMaxDepth() {
+        addChain(1, 2, 3, 4, 5);
+        pathIndex.refresh();
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), pathIndex.findPath(1, 5, 4));
+        assertEquals(List.of(), pathIndex.findPath(1, 5, 3));
+        assertEquals(List.of(1L, 2L), pathIndex.findPath(1, 2, 1));
+        assertEquals(List.of(), pathIndex.findPath(1, 2, 0));
+    }
+
+    @Test
+    void findPathToSelfReturnsSingleUser() {
+        pathIndex.refresh();
+
+        assertEquals(List.of(7L), pathIndex.findPath(7, 7, 0));
+    }
+
+    @Test
+    void refreshPicksUpNewFriends() {
+        addChain(1, 2);
+        pathIndex.refresh();
+        assertEquals(List.of(), pathIndex.findPath(1, 3, 10));
+
+        friendGraph.addFriend(2L, 3L);
+        assertEquals(List.of(), pathIndex.findPath(1, 3, 10));
+
+        pathIndex.refresh();
+        assertEquals(List.of(1L, 2L, 3L), pathIndex.findPath(1, 3, 10));
+    }
+
+    @Test
+    void findPathLengthMatchesBreadthFirstSearch() {
+        Random random = new Random(42);
+        int users = 60;
+        for (int i = 0; i < 120; i++) {
+            friendGraph.addFriend((long) random.nextInt(users), (long) random.nextInt(users));
+        }
+        pathIndex.refresh();
+
+        for (long from = 0; from < users; from++) {
+            Map<Long, Integer> distances = distances(from);
+            for (long to = 0; to < users; to++) {
+                Integer distance = distances.get(to);
+                for (int maxDepth = 1; maxDepth <= 6; maxDepth++) {
+                    List<Long> path = pathIndex.findPath(from, to, maxDepth);
+                    if (from == to) {
+                        assertEquals(List.of(from), path);
+                    } else if (distance == null || distance > maxDepth) {
+                        assertEquals(List.of(), path);
+                    } else {
+                        assertEquals(distance + 1, path.size());
+                        assertEquals(List.of(from, to), List.of(path.get(0), path.get(path.size() - 1)));
+                        for (int k = 1; k < path.size(); k++) {
+                            assertTrue(friendGraph.isFriend(path.get(k - 1), path.get(k)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void addChain(long... userIds) {
+        for (int i = 1; i < userIds.length; i++) {
+            friendGraph.addFriend(userIds[i - 1], userIds[i]);
+        }
+    }
+
+    private Map<Long, Integer> distances(long from) {
+        Map<Long, Integer> distances = new HashMap<>();
+        Queue<Long> queue = new ArrayDeque<>();
+        distances.put(from, 0);
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            long userId = queue.remove();
+            for (long friendId : friendGraph.getFriends(userId)) {
+                if (!distances.containsKey(friendId)) {
+                    distances.put(friendId, distances.get(userId) + 1);
+                    queue.add(friendId);
+                }
+            }
+        }
+        return distances;
+    }
+}